@@ -3,20 +3,43 @@ package dev.jsemolik.hytaleportal;
 import com.hypixel.hytale.logger.HytaleLogger;
 import com.hypixel.hytale.server.core.plugin.JavaPlugin;
 import com.hypixel.hytale.server.core.plugin.JavaPluginInit;
+import com.hypixel.hytale.server.core.universe.PlayerRef;
+import com.hypixel.hytale.server.core.universe.Universe;
 import dev.jsemolik.hytaleportal.commands.Portal1Command;
 import dev.jsemolik.hytaleportal.commands.Portal2Command;
 import dev.jsemolik.hytaleportal.commands.PortalGunCommand;
 import dev.jsemolik.hytaleportal.commands.PortalStatusCommand;
+import dev.jsemolik.hytaleportal.listeners.PlayerConnectListener;
 import dev.jsemolik.hytaleportal.listeners.PlayerDisconnectListener;
+import dev.jsemolik.hytaleportal.listeners.PlayerWorldListener;
 import dev.jsemolik.hytaleportal.listeners.PortalGunListener;
 import dev.jsemolik.hytaleportal.listeners.PortalTeleportListener;
+import dev.jsemolik.hytaleportal.listeners.WorldLifecycleListener;
+import dev.jsemolik.hytaleportal.persistence.OfflinePortalStore;
+import dev.jsemolik.hytaleportal.persistence.PortalJournal;
 import dev.jsemolik.hytaleportal.portal.PortalManager;
+import dev.jsemolik.hytaleportal.portal.PortalRetention;
 import dev.jsemolik.hytaleportal.portal.PortalVisualizer;
+import dev.jsemolik.hytaleportal.util.PlayerIndex;
+import dev.jsemolik.hytaleportal.util.PluginScheduler;
+import dev.jsemolik.hytaleportal.util.WorldRegistry;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class HytalePortal extends JavaPlugin {
     private static final HytaleLogger LOGGER = HytaleLogger.forEnclosingClass();
+
+    // How long shutdown waits for the worlds to apply the last queued block changes
+    private static final long FLUSH_TIMEOUT_SECONDS = 5;
+
     private static HytalePortal instance;
+    private PluginScheduler scheduler;
     private PortalVisualizer portalVisualizer;
+    private PortalJournal portalJournal;
+    private PortalRetention portalRetention;
 
     public HytalePortal(JavaPluginInit init) {
         super(init);
@@ -28,6 +51,8 @@ public class HytalePortal extends JavaPlugin {
     protected void setup() {
         LOGGER.atInfo().log("Setting up HytalePortal plugin...");
 
+        PortalConfig config = PortalConfig.load(this.getDataDirectory());
+
         // Register commands
         this.getCommandRegistry().registerCommand(new Portal1Command());
         this.getCommandRegistry().registerCommand(new Portal2Command());
@@ -36,14 +61,52 @@ public class HytalePortal extends JavaPlugin {
 
         // Register event listeners
         PortalGunListener.register(this);
+        PlayerConnectListener.register(this);
         PlayerDisconnectListener.register(this);
+        PlayerWorldListener.register(this);
+        WorldLifecycleListener.register(this);
+
+        // Players already online (plugin reload) are not announced by the listeners
+        for (PlayerRef playerRef : Universe.get().getPlayers()) {
+            PlayerIndex.get().onConnect(playerRef);
+        }
+
+        // Per-tick work of the plugin runs within a time budget (dormant while there is nothing to do)
+        scheduler = new PluginScheduler(config.getTickBudgetMillis());
+        scheduler.start();
 
         // Initialize the portal visualizer during setup
-        portalVisualizer = new PortalVisualizer();
+        portalVisualizer = new PortalVisualizer(scheduler);
+        portalVisualizer.loadOriginalBlocks(this.getDataDirectory());
         portalVisualizer.start();
 
         // Start the portal teleport checker
-        PortalTeleportListener.start();
+        PortalTeleportListener.start(scheduler);
+
+        // Fire portal gun shots (coalesced and rate limited per player)
+        PortalGunListener.start(scheduler, config.getMinShotIntervalMillis());
+
+        // Restore persisted portals, then record every change from here on
+        portalJournal = new PortalJournal(this.getDataDirectory());
+        try {
+            PortalManager.getInstance().restore(portalJournal.open());
+            PortalManager.getInstance().setJournal(portalJournal);
+            // Frames of restored portals may be in the world already; what they replaced must survive a crash too
+            portalJournal.flushAlongside(portalVisualizer.getOriginalBlocks());
+            LOGGER.atInfo().log("Restored " + PortalManager.getInstance().getTotalPortalCount() + " portals");
+        } catch (IOException e) {
+            LOGGER.atInfo().log("[ERROR] Could not load portal journal, portals will not be saved: " + e.getMessage());
+            portalJournal = null;
+        }
+
+        // Move portals of offline players to disk once more than the budget are loaded
+        portalRetention = new PortalRetention(
+            new OfflinePortalStore(this.getDataDirectory()),
+            portalJournal,
+            config.getMaxResidentPortals(),
+            config.getEvictionIdleSeconds()
+        );
+        portalRetention.start();
 
         LOGGER.atInfo().log("HytalePortal plugin setup complete!");
     }
@@ -65,9 +128,47 @@ public class HytalePortal extends JavaPlugin {
         // Stop the teleport checker
         PortalTeleportListener.stop();
 
-        // Clear all portals on shutdown
+        // Stop firing portal gun shots
+        PortalGunListener.stop();
+
+        // Stop moving portals to and from disk
+        if (portalRetention != null) {
+            portalRetention.stop();
+            portalRetention = null;
+        }
+
+        // Flush pending changes and write a final snapshot before the portals are cleared
+        if (portalJournal != null) {
+            PortalManager.getInstance().setJournal(null);
+            portalJournal.close();
+            portalJournal = null;
+        }
+
+        // Clear all portals on shutdown (they are restored from disk on the next start)
         PortalManager.getInstance().clearAll();
 
+        // Apply the block changes that are still queued, then stop ticking. The final work runs on the
+        // world threads; wait for it, so the original blocks are saved after the last change
+        if (scheduler != null) {
+            try {
+                scheduler.stop().get(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                LOGGER.atInfo().log("[WARN] Portal block changes were not all applied within " + FLUSH_TIMEOUT_SECONDS + " seconds");
+            } catch (ExecutionException e) {
+                LOGGER.atInfo().log("[ERROR] Error applying the last portal block changes: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        WorldRegistry.get().invalidateAll();
+        PlayerIndex.get().clear();
+
+        // Compact what the frames replaced, including the last changes applied above; everything
+        // before those is in the original block journal already
+        if (portalVisualizer != null) {
+            portalVisualizer.closeOriginalBlocks();
+        }
+
         LOGGER.atInfo().log("HytalePortal plugin shutdown complete!");
     }
 
@@ -79,7 +180,28 @@ public class HytalePortal extends JavaPlugin {
         return LOGGER;
     }
 
+    public PluginScheduler getScheduler() {
+        return scheduler;
+    }
+
     public PortalVisualizer getPortalVisualizer() {
         return portalVisualizer;
     }
+
+    public PortalRetention getPortalRetention() {
+        return portalRetention;
+    }
+
+    /**
+     * Called by the PortalManager whenever portals are created or removed.
+     * Wakes the idle tasks when there is work again; they go dormant on their own.
+     */
+    public void onPortalsChanged() {
+        if (scheduler != null) {
+            scheduler.wake();
+        }
+        if (portalRetention != null) {
+            portalRetention.wake();
+        }
+    }
 }
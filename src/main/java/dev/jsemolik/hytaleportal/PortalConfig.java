@@ -0,0 +1,97 @@
+package dev.jsemolik.hytaleportal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Plugin settings, read from config.properties in the plugin data directory.
+ * Missing keys fall back to their defaults; the file is created with defaults if it does not exist.
+ */
+public class PortalConfig {
+
+    private static final String FILE_NAME = "config.properties";
+
+    private static final String MAX_RESIDENT_PORTALS = "retention.maxResidentPortals";
+    private static final String EVICTION_IDLE_SECONDS = "retention.evictionIdleSeconds";
+    private static final String TICK_BUDGET_MILLIS = "scheduler.tickBudgetMillis";
+    private static final String MIN_SHOT_INTERVAL_MILLIS = "portalGun.minShotIntervalMillis";
+
+    private final Properties properties = new Properties();
+
+    private PortalConfig() {
+        properties.setProperty(MAX_RESIDENT_PORTALS, "20000");
+        properties.setProperty(EVICTION_IDLE_SECONDS, "300");
+        properties.setProperty(TICK_BUDGET_MILLIS, "4");
+        properties.setProperty(MIN_SHOT_INTERVAL_MILLIS, "250");
+    }
+
+    /**
+     * Load the config from a data directory, writing the defaults out on first start
+     */
+    public static PortalConfig load(Path dataDirectory) {
+        PortalConfig config = new PortalConfig();
+        Path file = dataDirectory.resolve(FILE_NAME);
+        try {
+            if (Files.exists(file)) {
+                try (Reader reader = Files.newBufferedReader(file)) {
+                    config.properties.load(reader);
+                }
+            } else {
+                Files.createDirectories(dataDirectory);
+                try (Writer writer = Files.newBufferedWriter(file)) {
+                    config.properties.store(writer,
+                        "HytalePortal settings\n" +
+                        MAX_RESIDENT_PORTALS + ": portals kept in memory before offline owners' portals are moved to disk\n" +
+                        EVICTION_IDLE_SECONDS + ": how long an offline owner's portals must go unused before they can be moved to disk\n" +
+                        TICK_BUDGET_MILLIS + ": time the plugin may spend per world tick before deferrable work is put off\n" +
+                        MIN_SHOT_INTERVAL_MILLIS + ": minimum time between two portal gun shots of the same colour by one player");
+                }
+            }
+        } catch (IOException e) {
+            HytalePortal.getPluginLogger().atInfo().log("[ERROR] Could not read " + FILE_NAME + ", using defaults: " + e.getMessage());
+        }
+        return config;
+    }
+
+    /**
+     * Memory budget: how many portals may stay in memory before offline owners' portals are evicted to disk
+     */
+    public int getMaxResidentPortals() {
+        return getInt(MAX_RESIDENT_PORTALS, 20000);
+    }
+
+    /**
+     * How long an offline owner's portals must go unused before they may be evicted
+     */
+    public int getEvictionIdleSeconds() {
+        return getInt(EVICTION_IDLE_SECONDS, 300);
+    }
+
+    /**
+     * Time the plugin may spend per world tick (halved while a world is behind)
+     */
+    public int getTickBudgetMillis() {
+        return getInt(TICK_BUDGET_MILLIS, 4);
+    }
+
+    /**
+     * Minimum time between two portal gun shots of the same colour by one player
+     */
+    public int getMinShotIntervalMillis() {
+        return getInt(MIN_SHOT_INTERVAL_MILLIS, 250);
+    }
+
+    private int getInt(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (RuntimeException e) {
+            HytalePortal.getPluginLogger().atInfo().log("[WARN] Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
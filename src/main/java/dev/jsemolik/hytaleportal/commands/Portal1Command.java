@@ -1,8 +1,6 @@
 package dev.jsemolik.hytaleportal.commands;
 
-import com.hypixel.hytale.math.vector.Vector3d;
 import com.hypixel.hytale.math.vector.Vector3f;
-import com.hypixel.hytale.math.vector.Vector3i;
 import com.hypixel.hytale.server.core.Message;
 import com.hypixel.hytale.server.core.command.system.CommandContext;
 import com.hypixel.hytale.server.core.command.system.basecommands.CommandBase;
@@ -10,6 +8,7 @@ import com.hypixel.hytale.server.core.universe.Universe;
 import dev.jsemolik.hytaleportal.portal.Portal;
 import dev.jsemolik.hytaleportal.portal.PortalManager;
 import dev.jsemolik.hytaleportal.portal.PortalType;
+import dev.jsemolik.hytaleportal.util.PlayerIndex;
 import dev.jsemolik.hytaleportal.util.RaycastHelper;
 
 import javax.annotation.Nonnull;
@@ -29,19 +28,18 @@ public class Portal1Command extends CommandBase {
         ctx.sendMessage(Message.raw("Creating Blue Portal...").color("blue"));
 
         try {
-            // Get all players - use first one as test (single player scenario)
-            var universe = Universe.get();
-            var players = universe.getPlayers();
-
-            if (players.isEmpty()) {
-                ctx.sendMessage(Message.raw("No players found!").color("red"));
+            // Get the player who ran the command
+            if (!ctx.isPlayer()) {
+                ctx.sendMessage(Message.raw("Only players can use this command!").color("red"));
+                return;
+            }
+            var playerRef = PlayerIndex.get().get(ctx.sender().getUuid());
+            if (playerRef == null) {
+                ctx.sendMessage(Message.raw("Player not found!").color("red"));
                 return;
             }
 
-            var playerRef = players.get(0);
-
-            // Get player position
-            Vector3d playerPos = playerRef.getTransform().getPosition();
+            var universe = Universe.get();
 
             // Get world name from player
             var world = universe.getWorld(playerRef.getWorldUuid());
@@ -50,39 +48,42 @@ public class Portal1Command extends CommandBase {
                 return;
             }
 
-            // Raycast to find target block
-            Vector3i targetBlock = RaycastHelper.getTargetBlockPosition(playerRef, world);
-            
-            // Calculate portal placement (position and rotation)
-            RaycastHelper.PortalPlacement placement = RaycastHelper.calculatePlacement(targetBlock, playerPos);
-
-            if (targetBlock == null) {
-                ctx.sendMessage(Message.raw("No surface found! Placing at default location.").color("yellow"));
-            }
-
-            // Create the blue portal with proper rotation
-            Portal portal = new Portal(
-                playerRef.getUuid(),
-                PortalType.BLUE,
-                placement.position,
-                placement.rotation,
-                world.getName()
-            );
-
-            // Register the portal
-            PortalManager.getInstance().setPortal(playerRef.getUuid(), portal);
-
-            // Debug logging
-            dev.jsemolik.hytaleportal.HytalePortal.getPluginLogger().atInfo().log(
-                "Portal1Command: Registered blue portal for player {} at position ({}, {}, {}) with rotation yaw={}",
-                playerRef.getUuid(), placement.position.x, placement.position.y, placement.position.z, placement.rotation.y
-            );
-
-            // Send detailed feedback with location
-            ctx.sendMessage(Message.raw("Blue Portal created!").color("blue"));
-            ctx.sendMessage(Message.raw(String.format("Location: X=%.1f, Y=%.1f, Z=%.1f",
-                placement.position.x, placement.position.y, placement.position.z)).color("aqua"));
-            ctx.sendMessage(Message.raw("Walk to this location to test teleportation").color("gray").italic(true));
+            // Raycast to find a valid spot, then place the portal once it is known
+            // (the command handler never waits for the world thread)
+            RaycastHelper.getPlacementAsync(playerRef, world).thenAccept(placement -> {
+                if (!placement.isValid()) {
+                    ctx.sendMessage(Message.raw(placement.failure.getMessage()).color("red"));
+                    return;
+                }
+
+                // Create the blue portal with proper rotation
+                Portal portal = new Portal(
+                    playerRef.getUuid(),
+                    PortalType.BLUE,
+                    placement.position,
+                    placement.rotation,
+                    world.getName()
+                );
+
+                // Register the portal
+                PortalManager.getInstance().setPortal(playerRef.getUuid(), portal);
+
+                // Debug logging
+                dev.jsemolik.hytaleportal.HytalePortal.getPluginLogger().atInfo().log(
+                    "Portal1Command: Registered blue portal for player {} at position ({}, {}, {}) with rotation yaw={}",
+                    playerRef.getUuid(), placement.position.x, placement.position.y, placement.position.z, placement.rotation.y
+                );
+
+                // Send detailed feedback with location
+                ctx.sendMessage(Message.raw("Blue Portal created!").color("blue"));
+                ctx.sendMessage(Message.raw(String.format("Location: X=%.1f, Y=%.1f, Z=%.1f",
+                    placement.position.x, placement.position.y, placement.position.z)).color("aqua"));
+                ctx.sendMessage(Message.raw("Walk to this location to test teleportation").color("gray").italic(true));
+            }).exceptionally(e -> {
+                ctx.sendMessage(Message.raw("Error: " + e.getMessage()).color("red"));
+                e.printStackTrace();
+                return null;
+            });
 
         } catch (Exception e) {
             ctx.sendMessage(Message.raw("Error: " + e.getMessage()).color("red"));
@@ -4,10 +4,10 @@ import com.hypixel.hytale.math.vector.Vector3d;
 import com.hypixel.hytale.server.core.Message;
 import com.hypixel.hytale.server.core.command.system.CommandContext;
 import com.hypixel.hytale.server.core.command.system.basecommands.CommandBase;
-import com.hypixel.hytale.server.core.universe.Universe;
 import dev.jsemolik.hytaleportal.portal.Portal;
 import dev.jsemolik.hytaleportal.portal.PortalManager;
 import dev.jsemolik.hytaleportal.portal.PortalPair;
+import dev.jsemolik.hytaleportal.util.PlayerIndex;
 
 import javax.annotation.Nonnull;
 
@@ -24,16 +24,16 @@ public class PortalStatusCommand extends CommandBase {
     @Override
     protected void executeSync(@Nonnull CommandContext ctx) {
         try {
-            // Get the first player (single player scenario)
-            var universe = Universe.get();
-            var players = universe.getPlayers();
-
-            if (players.isEmpty()) {
-                ctx.sendMessage(Message.raw("No players found!").color("red"));
+            // Get the player who ran the command
+            if (!ctx.isPlayer()) {
+                ctx.sendMessage(Message.raw("Only players can use this command!").color("red"));
+                return;
+            }
+            var playerRef = PlayerIndex.get().get(ctx.sender().getUuid());
+            if (playerRef == null) {
+                ctx.sendMessage(Message.raw("Player not found!").color("red"));
                 return;
             }
-
-            var playerRef = players.get(0);
             var playerUUID = playerRef.getUuid();
 
             // Get portal pair
@@ -90,7 +90,7 @@ public class PortalStatusCommand extends CommandBase {
             ctx.sendMessage(Message.raw(""));
             if (portalPair.hasBothPortals()) {
                 ctx.sendMessage(Message.raw("Teleportation: ACTIVE").color("green").bold(true));
-                ctx.sendMessage(Message.raw("Walk within 1.5 blocks of either portal to teleport!").color("green"));
+                ctx.sendMessage(Message.raw("Walk into the front of either portal to teleport!").color("green"));
             } else {
                 ctx.sendMessage(Message.raw("Teleportation: INACTIVE (need both portals)").color("red").bold(true));
             }
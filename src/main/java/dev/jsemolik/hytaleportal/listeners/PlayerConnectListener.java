@@ -0,0 +1,29 @@
+package dev.jsemolik.hytaleportal.listeners;
+
+import com.hypixel.hytale.server.core.event.events.player.PlayerConnectEvent;
+import dev.jsemolik.hytaleportal.HytalePortal;
+import dev.jsemolik.hytaleportal.util.PlayerIndex;
+
+/**
+ * Listens for player connections to index the player and bring back portals that were moved to disk
+ * while they were away.
+ */
+public class PlayerConnectListener {
+
+    /**
+     * Register this listener with the event registry
+     */
+    public static void register(HytalePortal plugin) {
+        plugin.getEventRegistry().register(PlayerConnectEvent.class, event -> {
+            handleConnect(plugin, event);
+        });
+    }
+
+    private static void handleConnect(HytalePortal plugin, PlayerConnectEvent event) {
+        PlayerIndex.get().onConnect(event.getPlayerRef());
+
+        if (plugin.getPortalRetention() != null) {
+            plugin.getPortalRetention().onOwnerOnline(event.getPlayerRef().getUuid());
+        }
+    }
+}
@@ -2,12 +2,13 @@ package dev.jsemolik.hytaleportal.listeners;
 
 import com.hypixel.hytale.server.core.event.events.player.PlayerDisconnectEvent;
 import dev.jsemolik.hytaleportal.HytalePortal;
-import dev.jsemolik.hytaleportal.portal.PortalManager;
+import dev.jsemolik.hytaleportal.util.PlayerIndex;
 
 import java.util.UUID;
 
 /**
- * Listens for player disconnections to clean up their portals.
+ * Listens for player disconnections to clean up per-player state.
+ * The player's portals stay in the world; see {@link dev.jsemolik.hytaleportal.portal.PortalRetention}.
  */
 public class PlayerDisconnectListener {
     
@@ -16,19 +17,26 @@ public class PlayerDisconnectListener {
      */
     public static void register(HytalePortal plugin) {
         plugin.getEventRegistry().register(PlayerDisconnectEvent.class, event -> {
-            handleDisconnect(event);
+            handleDisconnect(plugin, event);
         });
     }
     
-    private static void handleDisconnect(PlayerDisconnectEvent event) {
+    private static void handleDisconnect(HytalePortal plugin, PlayerDisconnectEvent event) {
         UUID playerUUID = event.getPlayerRef().getUuid();
         String playerName = event.getPlayerRef().getUsername();
         
-        // Remove all portals for this player
-        PortalManager.getInstance().removeAllPortals(playerUUID);
+        PlayerIndex.get().onDisconnect(playerUUID);
+
+        // Drop per-player teleport state
+        PortalTeleportListener.forgetPlayer(playerUUID);
+
+        // Their portals may now be moved to disk
+        if (plugin.getPortalRetention() != null) {
+            plugin.getPortalRetention().onOwnerOffline(playerUUID);
+        }
         
         HytalePortal.getPluginLogger().atInfo().log(
-            "Removed portals for disconnected player: {}",
+            "Kept portals of disconnected player: {}",
             playerName
         );
     }
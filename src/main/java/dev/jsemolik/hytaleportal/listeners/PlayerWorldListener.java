@@ -0,0 +1,48 @@
+package dev.jsemolik.hytaleportal.listeners;
+
+import com.hypixel.hytale.component.Ref;
+import com.hypixel.hytale.server.core.entity.entities.Player;
+import com.hypixel.hytale.server.core.event.events.player.PlayerReadyEvent;
+import com.hypixel.hytale.server.core.universe.PlayerRef;
+import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
+import dev.jsemolik.hytaleportal.HytalePortal;
+import dev.jsemolik.hytaleportal.util.PlayerIndex;
+import dev.jsemolik.hytaleportal.util.WorldRegistry;
+
+/**
+ * Listens for players entering a world (on join and when changing worlds) to index the entity
+ * they have there (see {@link PlayerIndex}) and wake the per-tick work that follows players.
+ */
+public class PlayerWorldListener {
+
+    /**
+     * Register this listener with the event registry
+     */
+    public static void register(HytalePortal plugin) {
+        // PlayerReadyEvent is keyed by world, so listen to all of them
+        plugin.getEventRegistry().registerGlobal(PlayerReadyEvent.class, event -> {
+            handleReady(plugin, event);
+        });
+    }
+
+    private static void handleReady(HytalePortal plugin, PlayerReadyEvent event) {
+        // Runs on the world thread, so the entity's components can be read
+        Ref<EntityStore> entityRef = event.getPlayerRef();
+        if (entityRef == null || !entityRef.isValid()) {
+            return;
+        }
+        PlayerRef playerRef = entityRef.getStore().getComponent(entityRef, PlayerRef.getComponentType());
+        Player player = entityRef.getStore().getComponent(entityRef, Player.getComponentType());
+        if (playerRef != null && player != null) {
+            PlayerIndex.get().onEnterWorld(playerRef, entityRef, WorldRegistry.get().handleOf(player.getWorld()));
+        } else if (playerRef != null) {
+            // No Player component yet; the store knows which world the entity is in
+            PlayerIndex.get().onEnterWorld(playerRef, entityRef);
+        }
+
+        // The portal gun aim preview looks for gun holders in worlds with players
+        if (plugin.getScheduler() != null) {
+            plugin.getScheduler().wake();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package dev.jsemolik.hytaleportal.listeners;
+
+import com.hypixel.hytale.component.Ref;
+import com.hypixel.hytale.math.vector.Vector3d;
+import com.hypixel.hytale.math.vector.Vector3f;
+import com.hypixel.hytale.protocol.Color;
+import com.hypixel.hytale.protocol.Packet;
+import com.hypixel.hytale.server.core.entity.entities.Player;
+import com.hypixel.hytale.server.core.inventory.ItemStack;
+import com.hypixel.hytale.server.core.universe.PlayerRef;
+import com.hypixel.hytale.server.core.universe.world.World;
+import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
+import dev.jsemolik.hytaleportal.portal.PortalParticleRenderer;
+import dev.jsemolik.hytaleportal.util.HandleTable;
+import dev.jsemolik.hytaleportal.util.RaycastHelper;
+import dev.jsemolik.hytaleportal.util.TickBudget;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shows players holding the portal gun an outline ("ghost portal") where a shot would place a portal.
+ *
+ * A player's aim is only raycast again once they have moved or turned past a threshold; smaller
+ * changes keep showing the previous result. Raycasts share a global budget per tick across all
+ * worlds; aims that don't get one wait for a later tick (longest waiting first) and keep showing the
+ * old outline meanwhile, so the cost stays flat however many players hold a gun.
+ *
+ * Known holders are checked every frame. The rest of a world's players are only looked at every
+ * {@link #SCAN_INTERVAL_FRAMES} frames, or on the next frame after someone used the gun there, to
+ * find new holders.
+ *
+ * State is per world and only touched by that world's thread, except the scan request.
+ */
+public class PortalGunAimPreview {
+
+    /**
+     * Raycasts allowed per tick, across all worlds and holders
+     */
+    static final int RAYCASTS_PER_TICK = 8;
+
+    /**
+     * Frames between looks at all of a world's players for new gun holders
+     */
+    private static final int SCAN_INTERVAL_FRAMES = 10;
+
+    // Movement (blocks) and head rotation (degrees) that make the previous aim stale
+    private static final double MOVE_THRESHOLD = 0.25;
+    private static final float TURN_THRESHOLD = 1.5f;
+
+    private static final long TICK_MILLIS = 50;
+
+    private static final double OUTLINE_SPACING = 0.5;
+    private static final String PREVIEW_PARTICLE = "Portal_Preview";
+    private static final Color PREVIEW_COLOR = new Color((byte) 0xE0, (byte) 0xE0, (byte) 0xE0);
+
+    // Oldest raycast first
+    private static final Comparator<Aim> BY_RAYCAST_TICK = Comparator.comparingLong(aim -> aim.raycastTick);
+
+    // Global raycast budget: the tick it is for and the raycasts left in it
+    private final AtomicLong budgetTick = new AtomicLong();
+    private final AtomicInteger budgetLeft = new AtomicInteger();
+
+    private final HandleTable<WorldAims> worlds = new HandleTable<>();
+
+    /**
+     * Update and show the previews of one world's gun holders (world thread)
+     */
+    public void render(World world, int worldHandle, TickBudget budget) {
+        WorldAims state = worlds.computeIfAbsent(worldHandle, handle -> new WorldAims());
+        long tick = ++state.tick;
+
+        // Find the holders and which of them need a new raycast
+        List<Aim> due = state.due;
+        due.clear();
+        boolean scan = state.scanRequested || (tick - 1) % SCAN_INTERVAL_FRAMES == 0;
+        if (scan) {
+            state.scanRequested = false;
+            for (PlayerRef playerRef : world.getPlayerRefs()) {
+                if (!isHoldingGun(playerRef.getReference())) {
+                    continue;
+                }
+                Aim aim = state.aims.get(playerRef.getUuid());
+                if (aim == null || aim.playerRef != playerRef) {
+                    aim = new Aim(playerRef);
+                    state.aims.put(playerRef.getUuid(), aim);
+                }
+                aim.seenTick = tick;
+            }
+        } else {
+            // Only the known holders
+            for (Aim aim : state.aims.values()) {
+                if (isHoldingGun(aim.playerRef.getReference())) {
+                    aim.seenTick = tick;
+                }
+            }
+        }
+        for (Aim aim : state.aims.values()) {
+            if (aim.seenTick == tick && aim.isStale()) {
+                due.add(aim);
+            }
+        }
+
+        // Raycast while the global budget and this tick's time allow, longest waiting first
+        due.sort(BY_RAYCAST_TICK);
+        for (Aim aim : due) {
+            if (!budget.hasTime() || !tryAcquireRaycast()) {
+                break;
+            }
+            aim.update(world, tick);
+        }
+        due.clear();
+
+        // Show every holder their latest outline; drop players who put the gun away
+        Iterator<Aim> iterator = state.aims.values().iterator();
+        while (iterator.hasNext()) {
+            Aim aim = iterator.next();
+            if (aim.seenTick != tick) {
+                iterator.remove();
+            } else if (aim.particles != null) {
+                aim.playerRef.getPacketHandler().write(aim.particles);
+            }
+        }
+    }
+
+    /**
+     * Look for new gun holders in a world on its next frame (someone just used the gun there)
+     */
+    public void requestScan(int worldHandle) {
+        worlds.computeIfAbsent(worldHandle, handle -> new WorldAims()).scanRequested = true;
+    }
+
+    /**
+     * Forget every preview
+     */
+    public void clear() {
+        worlds.clear();
+    }
+
+    private static boolean isHoldingGun(Ref<EntityStore> entityRef) {
+        if (entityRef == null || !entityRef.isValid()) {
+            return false;
+        }
+        Player player = entityRef.getStore().getComponent(entityRef, Player.getComponentType());
+        if (player == null) {
+            return false;
+        }
+        ItemStack item = player.getInventory().getItemInHand();
+        return item != null && !item.isEmpty() && PortalGunListener.PORTAL_GUN_ITEM_ID.equals(item.getItemId());
+    }
+
+    /**
+     * Take one raycast from the global budget of the current tick
+     */
+    private boolean tryAcquireRaycast() {
+        long tick = System.currentTimeMillis() / TICK_MILLIS;
+        long current = budgetTick.get();
+        if (current != tick && budgetTick.compareAndSet(current, tick)) {
+            budgetLeft.set(RAYCASTS_PER_TICK);
+        }
+        return budgetLeft.getAndDecrement() > 0;
+    }
+
+    private static final class WorldAims {
+        final Map<UUID, Aim> aims = new HashMap<>();
+        final List<Aim> due = new ArrayList<>();
+        long tick;
+        // Set from event handlers when the gun was used in the world
+        volatile boolean scanRequested;
+    }
+
+    private static final class Aim {
+        final PlayerRef playerRef;
+        long seenTick;
+
+        // Where the player was and looked at the last raycast
+        boolean raycast;
+        long raycastTick;
+        double x;
+        double y;
+        double z;
+        float pitch;
+        float yaw;
+
+        // Outline of the last raycast, null if a shot would not place a portal
+        Packet[] particles;
+
+        Aim(PlayerRef playerRef) {
+            this.playerRef = playerRef;
+        }
+
+        /**
+         * Whether the player moved or turned past the thresholds since the last raycast
+         */
+        boolean isStale() {
+            if (!raycast) {
+                return true;
+            }
+            Vector3d position = playerRef.getTransform().getPosition();
+            double dx = position.x - x;
+            double dy = position.y - y;
+            double dz = position.z - z;
+            if (dx * dx + dy * dy + dz * dz > MOVE_THRESHOLD * MOVE_THRESHOLD) {
+                return true;
+            }
+            Vector3f rotation = playerRef.getHeadRotation();
+            return Math.abs(rotation.x - pitch) > TURN_THRESHOLD || angleBetween(rotation.y, yaw) > TURN_THRESHOLD;
+        }
+
+        /**
+         * Raycast the player's aim and rebuild the outline
+         */
+        void update(World world, long tick) {
+            Vector3d position = playerRef.getTransform().getPosition();
+            Vector3f rotation = playerRef.getHeadRotation();
+            raycast = true;
+            raycastTick = tick;
+            x = position.x;
+            y = position.y;
+            z = position.z;
+            pitch = rotation.x;
+            yaw = rotation.y;
+
+            RaycastHelper.PortalPlacement placement = RaycastHelper.findPlacement(playerRef, world);
+            if (!placement.isValid()) {
+                particles = null;
+                return;
+            }
+            List<Packet> outline = new ArrayList<>();
+            PortalParticleRenderer.addOutline(outline,
+                (int) Math.floor(placement.position.x), (int) Math.floor(placement.position.y), (int) Math.floor(placement.position.z),
+                Math.floorMod(Math.round(placement.rotation.y / 90f), 4),
+                OUTLINE_SPACING, PREVIEW_PARTICLE, PREVIEW_COLOR);
+            particles = outline.toArray(new Packet[0]);
+        }
+
+        private static float angleBetween(float a, float b) {
+            float difference = Math.abs(a - b) % 360f;
+            return difference > 180f ? 360f - difference : difference;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package dev.jsemolik.hytaleportal.listeners;
 
+import com.hypixel.hytale.component.Ref;
 import com.hypixel.hytale.math.vector.Vector3d;
-import com.hypixel.hytale.math.vector.Vector3f;
 import com.hypixel.hytale.server.core.Message;
 import com.hypixel.hytale.server.core.entity.entities.Player;
 import com.hypixel.hytale.server.core.event.events.player.PlayerInteractEvent;
@@ -9,20 +9,44 @@ import com.hypixel.hytale.server.core.inventory.ItemStack;
 import com.hypixel.hytale.server.core.universe.PlayerRef;
 import com.hypixel.hytale.server.core.universe.Universe;
 import com.hypixel.hytale.server.core.universe.world.World;
+import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
 import dev.jsemolik.hytaleportal.HytalePortal;
 import dev.jsemolik.hytaleportal.portal.Portal;
 import dev.jsemolik.hytaleportal.portal.PortalManager;
 import dev.jsemolik.hytaleportal.portal.PortalType;
+import dev.jsemolik.hytaleportal.util.PlayerIndex;
+import dev.jsemolik.hytaleportal.util.PluginScheduler;
+import dev.jsemolik.hytaleportal.util.RaycastHelper;
+import dev.jsemolik.hytaleportal.util.TickBudget;
+import dev.jsemolik.hytaleportal.util.WorldRegistry;
 
 /**
  * Listens for player interactions to handle portal gun usage.
  * Left-click creates a blue portal, right-click creates an orange portal.
+ *
+ * Interactions only queue a shot; shots are coalesced and rate limited per player and fired by a
+ * job of the plugin scheduler (see {@link PortalGunShotQueue}). Players holding the gun see where
+ * a shot would land (see {@link PortalGunAimPreview}).
  */
 public class PortalGunListener {
 
-    private static final String PORTAL_GUN_ITEM_ID = "hytale:items/tools/grappling_hook";
+    static final String PORTAL_GUN_ITEM_ID = "hytale:items/tools/grappling_hook";
     private static final double MAX_PORTAL_DISTANCE = 100.0; // Maximum distance to place portal
 
+    /**
+     * Ticks between aim preview frames
+     */
+    private static final int PREVIEW_INTERVAL_TICKS = 2;
+
+    // Pending shots while the gun is running (read by the event handler without locking)
+    private static volatile PortalGunShotQueue shotQueue;
+    private static volatile PluginScheduler scheduler;
+    private static PluginScheduler.Registration shotJob;
+
+    // Aim preview for players holding the gun while it is running (read by the event handler without locking)
+    private static volatile PortalGunAimPreview aimPreview;
+    private static PluginScheduler.Registration previewJob;
+
     /**
      * Register this listener with the event registry
      */
@@ -33,6 +57,64 @@ public class PortalGunListener {
         });
     }
 
+    /**
+     * Start firing queued shots and previewing where they would land, as jobs of the plugin scheduler
+     * @param minShotIntervalMillis Minimum time between two shots of the same colour by one player
+     */
+    public static synchronized void start(PluginScheduler pluginScheduler, long minShotIntervalMillis) {
+        if (shotJob != null) {
+            return; // Already running
+        }
+
+        scheduler = pluginScheduler;
+        PortalGunShotQueue queue = new PortalGunShotQueue(minShotIntervalMillis, PortalGunListener::fire);
+        shotJob = scheduler.register("portal gun shots", PluginScheduler.Priority.NORMAL, 1, new PluginScheduler.Job() {
+            @Override
+            public boolean hasWork(int worldHandle) {
+                return queue.hasWork(worldHandle);
+            }
+
+            @Override
+            public void run(World world, int worldHandle, TickBudget budget) {
+                queue.drain(world, worldHandle, budget);
+            }
+        });
+        shotQueue = queue;
+
+        // Previews are cosmetic, so they are the first to go when a tick runs out of time
+        PortalGunAimPreview preview = new PortalGunAimPreview();
+        previewJob = scheduler.register("portal gun aim preview", PluginScheduler.Priority.DEFERRABLE, PREVIEW_INTERVAL_TICKS, new PluginScheduler.Job() {
+            @Override
+            public boolean hasWork(int worldHandle) {
+                // Who holds the gun is only known by looking, so look in worlds with players
+                return PlayerIndex.get().hasPlayers(worldHandle);
+            }
+
+            @Override
+            public void run(World world, int worldHandle, TickBudget budget) {
+                preview.render(world, worldHandle, budget);
+            }
+        });
+        aimPreview = preview;
+    }
+
+    /**
+     * Stop firing shots and showing previews; pending shots are dropped
+     */
+    public static synchronized void stop() {
+        if (shotJob != null) {
+            scheduler.unregister(shotJob);
+            scheduler.unregister(previewJob);
+            shotJob = null;
+            previewJob = null;
+            scheduler = null;
+            shotQueue.clear();
+            shotQueue = null;
+            aimPreview.clear();
+            aimPreview = null;
+        }
+    }
+
     private static void handleInteraction(PlayerInteractEvent event) {
         Player player = event.getPlayer();
         ItemStack itemInHand = event.getItemInHand();
@@ -46,6 +128,13 @@ public class PortalGunListener {
             return;
         }
 
+        // A gun holder the preview may not know about yet
+        int worldHandle = WorldRegistry.get().handleOf(player.getWorld());
+        PortalGunAimPreview preview = aimPreview;
+        if (preview != null) {
+            preview.requestScan(worldHandle);
+        }
+
         // Get actionType as string to check interaction type
         String actionTypeStr = event.getActionType().toString();
 
@@ -64,73 +153,59 @@ public class PortalGunListener {
         // Cancel the default interaction
         event.setCancelled(true);
 
-        // Get player reference from the player's world
-        // Find the PlayerRef by matching the player entity reference
-        World world = player.getWorld();
-        var playerEntityRef = player.getReference();
-
-        PlayerRef playerRef = null;
-        for (var ref : world.getPlayerRefs()) {
-            if (ref.getReference().equals(playerEntityRef)) {
-                playerRef = ref;
-                break;
-            }
-        }
-
-        if (playerRef == null) {
+        // Queue the shot; the placement work happens when it fires
+        PortalGunShotQueue queue = shotQueue;
+        PluginScheduler pluginScheduler = scheduler;
+        if (queue == null || pluginScheduler == null) {
             return;
         }
-
-        // Get player's look direction and position
-        Vector3d playerPos = playerRef.getTransform().getPosition();
-        Vector3f playerRot = playerRef.getHeadRotation();
-
-        // Calculate portal placement position
-        // For now, place it directly in front of the player at a fixed distance
-        // TODO: Implement proper raycast to find the nearest surface
-        Vector3d portalPosition = calculatePortalPosition(playerPos, playerRot);
-
-        // Create the portal
-        Portal portal = new Portal(
-            playerRef.getUuid(),
-            portalType,
-            portalPosition,
-            new Vector3f(0, 0, 0), // Default rotation for now
-            world.getName()
-        );
-
-        // Register the portal
-        PortalManager.getInstance().setPortal(playerRef.getUuid(), portal);
-
-        // Send feedback to player
-        String colorName = portalType == PortalType.BLUE ? "Blue" : "Orange";
-        String color = portalType == PortalType.BLUE ? "blue" : "gold";
-        player.sendMessage(
-            Message.raw(colorName + " portal created!")
-                .color(color)
-        );
-
-        HytalePortal.getPluginLogger().atInfo().log("Player " + playerRef.getUsername() + " created a " + colorName + " portal at " + portalPosition);
+        queue.submit(worldHandle, player, player.getReference(), portalType);
+        pluginScheduler.wake();
     }
 
     /**
-     * Calculate the portal placement position based on player position and rotation
-     * TODO: Implement proper raycast to find the nearest block surface
+     * Fire a shot: place a portal of the given type where the player is aiming (world thread)
      */
-    private static Vector3d calculatePortalPosition(Vector3d playerPos, Vector3f playerRot) {
-        // Simple calculation: place portal 5 blocks in front of player
-        double distance = 5.0;
-
-        // Convert rotation to direction vector
-        // Yaw is rotation around Y axis
-        float yaw = playerRot.y;
-        double yawRadians = Math.toRadians(yaw);
-
-        double x = playerPos.x - Math.sin(yawRadians) * distance;
-        double y = playerPos.y; // Same height as player for now
-        double z = playerPos.z + Math.cos(yawRadians) * distance;
+    private static void fire(World world, Player player, Ref<EntityStore> playerEntityRef, PortalType portalType) {
+        // Get the PlayerRef of the player's entity
+        PlayerRef playerRef = PlayerIndex.get().get(playerEntityRef);
+        if (playerRef == null) {
+            return;
+        }
 
-        // Snap to block coordinates
-        return new Vector3d(Math.floor(x), Math.floor(y), Math.floor(z));
+        // Raycast to the surface the player is aiming at, then place the portal on it
+        // (interactions arrive on the world thread, so this normally completes right away)
+        RaycastHelper.getPlacementAsync(playerRef, world).thenAccept(placement -> {
+            if (!placement.isValid()) {
+                player.sendMessage(Message.raw(placement.failure.getMessage()).color("red"));
+                return;
+            }
+            Vector3d portalPosition = placement.position;
+
+            // Create the portal
+            Portal portal = new Portal(
+                playerRef.getUuid(),
+                portalType,
+                portalPosition,
+                placement.rotation,
+                world.getName()
+            );
+
+            // Register the portal
+            PortalManager.getInstance().setPortal(playerRef.getUuid(), portal);
+
+            // Send feedback to player
+            String colorName = portalType == PortalType.BLUE ? "Blue" : "Orange";
+            String color = portalType == PortalType.BLUE ? "blue" : "gold";
+            player.sendMessage(
+                Message.raw(colorName + " portal created!")
+                    .color(color)
+            );
+
+            HytalePortal.getPluginLogger().atInfo().log("Player " + playerRef.getUsername() + " created a " + colorName + " portal at " + portalPosition);
+        }).exceptionally(e -> {
+            HytalePortal.getPluginLogger().atInfo().log("[ERROR] Error placing portal: " + e.getMessage());
+            return null;
+        });
     }
 }
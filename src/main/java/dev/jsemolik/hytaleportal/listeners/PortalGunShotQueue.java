@@ -0,0 +1,141 @@
+package dev.jsemolik.hytaleportal.listeners;
+
+import com.hypixel.hytale.component.Ref;
+import com.hypixel.hytale.server.core.entity.entities.Player;
+import com.hypixel.hytale.server.core.universe.world.World;
+import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
+import dev.jsemolik.hytaleportal.HytalePortal;
+import dev.jsemolik.hytaleportal.portal.PortalType;
+import dev.jsemolik.hytaleportal.util.HandleTable;
+import dev.jsemolik.hytaleportal.util.TickBudget;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Coalesces portal gun shots per player and limits how fast each player can fire.
+ *
+ * A trigger pull only marks a shot of its colour as pending; nothing else happens until the world's
+ * next drain. Pulls that arrive before then collapse into that one pending shot, so holding the
+ * button or using an autoclicker costs a flag per event. A pending shot fires once the player's
+ * previous shot of that colour is at least the minimum interval old; until then it keeps waiting.
+ * A shot aims where the player looks when it fires.
+ *
+ * State is per world and only touched by that world's thread. Shooters are drained in rotation: one
+ * that was handled goes to the back, so when the budget runs out the ones not reached go first on
+ * the next tick. A player's state is dropped once nothing is pending and their last shots are older
+ * than the interval.
+ */
+public class PortalGunShotQueue {
+
+    /**
+     * Fires a shot (world thread)
+     */
+    public interface ShotHandler {
+        void fire(World world, Player player, Ref<EntityStore> playerRef, PortalType type);
+    }
+
+    private static final PortalType[] TYPES = PortalType.values();
+
+    private final long minShotIntervalMillis;
+    private final ShotHandler handler;
+    private final HandleTable<WorldShots> worlds = new HandleTable<>();
+
+    public PortalGunShotQueue(long minShotIntervalMillis, ShotHandler handler) {
+        this.minShotIntervalMillis = minShotIntervalMillis;
+        this.handler = handler;
+    }
+
+    /**
+     * Mark a shot as pending for a player (world thread)
+     */
+    public void submit(int worldHandle, Player player, Ref<EntityStore> playerRef, PortalType type) {
+        WorldShots shots = worlds.computeIfAbsent(worldHandle, handle -> new WorldShots());
+        Shooter shooter = shots.shooters.get(playerRef);
+        if (shooter == null) {
+            shooter = new Shooter(playerRef);
+            shots.shooters.put(playerRef, shooter);
+            shots.order.add(shooter);
+            shots.shooterCount = shots.shooters.size();
+        }
+        shooter.player = player;
+        shooter.pending[type.ordinal()] = true;
+    }
+
+    /**
+     * Whether any player of a world has shots pending or cooling down
+     */
+    public boolean hasWork(int worldHandle) {
+        WorldShots shots = worlds.get(worldHandle);
+        return shots != null && shots.shooterCount > 0;
+    }
+
+    /**
+     * Fire the pending shots that are off cooldown until the budget is spent (world thread).
+     * Shots that don't get to fire stay pending.
+     */
+    public void drain(World world, int worldHandle, TickBudget budget) {
+        WorldShots shots = worlds.get(worldHandle);
+        if (shots == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        // Each shooter at most once per drain; the ones not reached stay at the front
+        for (int remaining = shots.order.size(); remaining > 0 && budget.hasTime(); remaining--) {
+            Shooter shooter = shots.order.poll();
+            if (!shooter.playerRef.isValid()) {
+                // The player left the world
+                shots.shooters.remove(shooter.playerRef);
+                continue;
+            }
+            boolean active = false;
+            for (int i = 0; i < TYPES.length; i++) {
+                boolean coolingDown = now - shooter.lastFired[i] < minShotIntervalMillis;
+                if (shooter.pending[i] && !coolingDown) {
+                    shooter.pending[i] = false;
+                    shooter.lastFired[i] = now;
+                    coolingDown = true;
+                    try {
+                        handler.fire(world, shooter.player, shooter.playerRef, TYPES[i]);
+                    } catch (Exception e) {
+                        HytalePortal.getPluginLogger().atInfo().log("[ERROR] Error firing portal gun: " + e.getMessage());
+                    }
+                }
+                active |= shooter.pending[i] || coolingDown;
+            }
+            if (active) {
+                shots.order.add(shooter);
+            } else {
+                shots.shooters.remove(shooter.playerRef);
+            }
+        }
+        shots.shooterCount = shots.shooters.size();
+    }
+
+    /**
+     * Drop all pending shots
+     */
+    public void clear() {
+        worlds.clear();
+    }
+
+    private static final class WorldShots {
+        final Map<Ref<EntityStore>, Shooter> shooters = new HashMap<>();
+        // The same shooters in drain order
+        final ArrayDeque<Shooter> order = new ArrayDeque<>();
+        // Size of shooters, readable from the scheduler thread
+        volatile int shooterCount;
+    }
+
+    private static final class Shooter {
+        final Ref<EntityStore> playerRef;
+        Player player;
+        final boolean[] pending = new boolean[TYPES.length];
+        final long[] lastFired = new long[TYPES.length];
+
+        Shooter(Ref<EntityStore> playerRef) {
+            this.playerRef = playerRef;
+        }
+    }
+}
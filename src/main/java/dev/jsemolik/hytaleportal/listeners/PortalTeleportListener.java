@@ -2,302 +2,238 @@ package dev.jsemolik.hytaleportal.listeners;
 
 import com.hypixel.hytale.math.vector.Transform;
 import com.hypixel.hytale.math.vector.Vector3d;
-import com.hypixel.hytale.math.vector.Vector3f;
-import com.hypixel.hytale.math.vector.Vector3i;
-import com.hypixel.hytale.server.core.HytaleServer;
-import com.hypixel.hytale.server.core.Message;
-import com.hypixel.hytale.server.core.universe.Universe;
+import com.hypixel.hytale.server.core.universe.PlayerRef;
 import com.hypixel.hytale.server.core.universe.world.World;
 import dev.jsemolik.hytaleportal.HytalePortal;
+import dev.jsemolik.hytaleportal.portal.PlayerCheckScheduler;
 import dev.jsemolik.hytaleportal.portal.Portal;
+import dev.jsemolik.hytaleportal.portal.PortalCrossing;
+import dev.jsemolik.hytaleportal.portal.PortalCrossingDetector;
+import dev.jsemolik.hytaleportal.portal.PortalHysteresis;
 import dev.jsemolik.hytaleportal.portal.PortalManager;
 import dev.jsemolik.hytaleportal.portal.PortalPair;
-
-import java.util.Map;
+import dev.jsemolik.hytaleportal.portal.PortalSnapshot;
+import dev.jsemolik.hytaleportal.portal.PortalSpatialIndex;
+import dev.jsemolik.hytaleportal.util.HandleTable;
+import dev.jsemolik.hytaleportal.util.PluginScheduler;
+import dev.jsemolik.hytaleportal.util.TickBudget;
+import dev.jsemolik.hytaleportal.util.WorldRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 /**
  * Handles portal teleportation logic.
  * Monitors player positions and teleports them when they enter a portal.
+ * Detection runs per world, on each world's own thread, so worlds are checked in parallel.
+ * Teleport commits are never budgeted: they go straight to the world thread (see {@link TeleportCommitQueue}).
  */
 public class PortalTeleportListener {
 
-    private static final long TELEPORT_COOLDOWN_MS = 1000; // 1 second cooldown after teleport
+    // Disarms each player's exit portal until they have left it, to prevent bouncing
+    private static final PortalHysteresis hysteresis = new PortalHysteresis();
+
+    // Per-world detection state by world handle, only touched by that world's thread
+    private static final HandleTable<WorldState> worldStates = new HandleTable<>();
+
+    // Detection state older than this is stale (the check was not running) and is started over
+    private static final long STALE_STATE_MS = 1000;
 
-    // Track last teleport time for each player to prevent bouncing
-    private static final Map<UUID, Long> lastTeleportTime = new ConcurrentHashMap<>();
+    // Batches teleports per world and commits them once per tick
+    private static final TeleportCommitQueue commitQueue = new TeleportCommitQueue(
+        (playerRef, exitPortal) -> hysteresis.disarm(playerRef.getUuid(), exitPortal, System.currentTimeMillis())
+    );
 
-    private static ScheduledFuture<?> checkTask;
+    // Check job while the checker is running
+    private static PluginScheduler scheduler;
+    private static PluginScheduler.Registration checkJob;
 
     /**
-     * Start the portal teleportation checker
+     * Start the portal teleportation checker.
+     * It runs as a job of the plugin scheduler, only in worlds with portals while complete pairs exist.
      */
-    public static void start() {
-        if (checkTask != null && !checkTask.isCancelled()) {
+    public static synchronized void start(PluginScheduler pluginScheduler) {
+        if (checkJob != null) {
             return; // Already running
         }
 
-        // Check for portal teleportations every 50ms (20 times per second)
-        checkTask = HytaleServer.SCHEDULED_EXECUTOR.scheduleAtFixedRate(
-            PortalTeleportListener::checkPortalTeleports,
-            0,
-            50,
-            TimeUnit.MILLISECONDS
-        );
+        scheduler = pluginScheduler;
+        checkJob = scheduler.register("portal teleport check", PluginScheduler.Priority.NORMAL, 1, new PluginScheduler.Job() {
+            @Override
+            public boolean hasWork(int worldHandle) {
+                PortalManager manager = PortalManager.getInstance();
+                if (manager.getCompletePairCount() == 0) {
+                    return false;
+                }
+                PortalSpatialIndex index = manager.getSpatialIndex(worldHandle);
+                return index != null && !index.isEmpty();
+            }
 
+            @Override
+            public void run(World world, int worldHandle, TickBudget budget) {
+                checkWorld(world, worldHandle, budget);
+            }
+        });
         HytalePortal.getPluginLogger().atInfo().log("Portal teleport checker started");
     }
 
     /**
      * Stop the portal teleportation checker
      */
-    public static void stop() {
-        if (checkTask != null) {
-            checkTask.cancel(false);
-            checkTask = null;
+    public static synchronized void stop() {
+        if (checkJob != null) {
+            scheduler.unregister(checkJob);
+            checkJob = null;
+            scheduler = null;
             HytalePortal.getPluginLogger().atInfo().log("Portal teleport checker stopped");
         }
-        lastTeleportTime.clear();
+        commitQueue.clear();
+        hysteresis.clear();
+        worldStates.clear();
     }
 
     /**
-     * Check all players for portal teleportations
+     * Forget all per-player state (called when a player disconnects)
      */
-    private static void checkPortalTeleports() {
-        try {
-            Universe universe = Universe.get();
+    public static void forgetPlayer(UUID playerUUID) {
+        hysteresis.forget(playerUUID);
+        worldStates.forEach(state -> state.crossingDetector.reset(playerUUID));
+    }
 
-            // Iterate through all players
-            for (var playerRef : universe.getPlayers()) {
-                UUID playerUUID = playerRef.getUuid();
+    /**
+     * Check the players of one world for portal teleportations (runs on the world thread).
+     * Only players who could have reached a portal since their last check are tested; each
+     * one's movement since then is swept against the portals indexed around it, and any
+     * complete portal pair can be used by any player.
+     *
+     * Once the tick's budget is spent, the remaining players are put off to the next tick;
+     * their movement is swept then, so a crossing is detected late but never missed.
+     */
+    private static void checkWorld(World world, int worldHandle, TickBudget budget) {
+        PortalManager manager = PortalManager.getInstance();
+        PortalSpatialIndex index = manager.getSpatialIndex(worldHandle);
+        if (index == null || index.isEmpty()) {
+            return;
+        }
 
-                // Check cooldown
-                Long lastTeleport = lastTeleportTime.get(playerUUID);
-                if (lastTeleport != null && (System.currentTimeMillis() - lastTeleport) < TELEPORT_COOLDOWN_MS) {
-                    continue; // Still on cooldown
-                }
+        // One consistent view of the portal pairs for the whole tick
+        PortalSnapshot snapshot = manager.getSnapshot();
+        Predicate<Portal> linked = portal -> isLinked(snapshot, portal);
 
-                // Get player's portal pair
-                PortalPair portalPair = PortalManager.getInstance().getPortalPair(playerUUID);
-                if (portalPair == null || !portalPair.hasBothPortals()) {
-                    continue; // No portals or only one portal
+        long now = System.currentTimeMillis();
+        WorldState state = worldStates.computeIfAbsent(worldHandle, handle -> new WorldState());
+        if (state.lastCheck != 0 && now - state.lastCheck > STALE_STATE_MS) {
+            // Samples and schedules went stale while the check was not running
+            state = new WorldState();
+            worldStates.put(worldHandle, state);
+        }
+        state.lastCheck = now;
+        PortalCrossingDetector crossingDetector = state.crossingDetector;
+
+        // Players far from every portal are skipped until they could have reached one
+        List<PlayerRef> duePlayers = state.duePlayers;
+        duePlayers.clear();
+        state.scheduler.collectDue(world, index, duePlayers);
+
+        for (int i = 0; i < duePlayers.size(); i++) {
+            PlayerRef playerRef = duePlayers.get(i);
+            if (!budget.hasTime()) {
+                // Out of time: the rest go first thing next tick
+                for (int j = i; j < duePlayers.size(); j++) {
+                    state.scheduler.scheduleSoon(duePlayers.get(j));
                 }
+                break;
+            }
+            UUID playerUUID = playerRef.getUuid();
 
-                // Get player position
-                Vector3d playerPos = playerRef.getTransform().getPosition();
+            Vector3d playerPos = playerRef.getTransform().getPosition();
+            state.scheduler.scheduleNext(playerRef, playerPos.x, playerPos.z, index);
 
-                // Get world safely
-                var world = universe.getWorld(playerRef.getWorldUuid());
-                if (world == null) {
-                    continue; // Skip if world not found
-                }
-                String worldName = world.getName();
+            // The exit portal of a recent teleport stays disarmed until the player has left it
+            Portal disarmed = hysteresis.update(playerUUID, playerPos.x, playerPos.y, playerPos.z, now);
 
-                // Check if player is near blue portal
-                Portal bluePortal = portalPair.getBluePortal();
-                if (bluePortal != null && bluePortal.getWorldName().equals(worldName)) {
-                    if (isPlayerInsidePortal(playerPos, bluePortal)) {
-                        HytalePortal.getPluginLogger().atInfo().log(
-                            "Player {} entering blue portal",
-                            playerRef.getUsername()
-                        );
-                        teleportPlayer(playerRef, portalPair.getOrangePortal());
-                        continue;
-                    }
-                }
+            // Sweep the movement since the last check against nearby portals
+            PortalCrossing crossing = crossingDetector.update(
+                playerUUID, playerPos.x, playerPos.y, playerPos.z, now, index,
+                disarmed == null
+                    ? linked
+                    : portal -> portal != disarmed && linked.test(portal)
+            );
 
-                // Check if player is near orange portal
-                Portal orangePortal = portalPair.getOrangePortal();
-                if (orangePortal != null && orangePortal.getWorldName().equals(worldName)) {
-                    if (isPlayerInsidePortal(playerPos, orangePortal)) {
-                        HytalePortal.getPluginLogger().atInfo().log(
-                            "Player {} entering orange portal",
-                            playerRef.getUsername()
-                        );
-                        teleportPlayer(playerRef, bluePortal);
-                    }
+            if (crossing != null) {
+                Portal portal = crossing.portal;
+                PortalPair portalPair = snapshot.getPortalPair(portal.getOwnerUUID());
+                if (portalPair == null) {
+                    continue; // Removed since the broadphase
                 }
-            }
-        } catch (Exception e) {
-            HytalePortal.getPluginLogger().atInfo().log("[ERROR] Error checking portal teleports: " + e.getMessage());
-        }
-    }
 
-    /**
-     * Check if a player is inside/touching a portal AND approaching from the front
-     */
-    private static boolean isPlayerInsidePortal(Vector3d playerPos, Portal portal) {
-        // Get all portal block positions
-        Vector3i[] framePositions = portal.getFramePositions();
-        
-        // Check if player position overlaps with any portal block
-        // Player hitbox is approximately 0.6 x 1.8 x 0.6 blocks
-        boolean isInside = false;
-        for (Vector3i blockPos : framePositions) {
-            // Check if player's bounding box intersects with this block
-            // Allow some margin for easier entry
-            double margin = 0.8; // Slightly larger than player width for easier detection
-            
-            if (playerPos.x >= blockPos.x - margin && playerPos.x <= blockPos.x + 1 + margin &&
-                playerPos.y >= blockPos.y - margin && playerPos.y <= blockPos.y + 1 + margin &&
-                playerPos.z >= blockPos.z - margin && playerPos.z <= blockPos.z + 1 + margin) {
-                isInside = true;
-                break;
+                HytalePortal.getPluginLogger().atInfo().log(
+                    "Player {} entering {} portal at ({}, {}, {})",
+                    playerRef.getUsername(), portal.getType(), crossing.entryX, crossing.entryY, crossing.entryZ
+                );
+                if (teleportPlayer(playerRef, world, worldHandle, portalPair.getOppositePortal(portal.getType()))) {
+                    // The jump to the exit portal is not a movement to sweep
+                    crossingDetector.reset(playerUUID);
+                    state.scheduler.scheduleSoon(playerRef);
+                }
             }
         }
-        
-        if (!isInside) {
-            return false;
-        }
-        
-        // Check if player is approaching from the front side
-        Vector3d portalCenter = portal.getCenterPosition();
-        Vector3d portalNormal = portal.getNormalVector();
-        
-        // Vector from portal center to player
-        Vector3d toPlayer = new Vector3d(
-            playerPos.x - portalCenter.x,
-            playerPos.y - portalCenter.y,
-            playerPos.z - portalCenter.z
-        );
-        
-        // Dot product tells us which side the player is on
-        // Positive = player is on the "front" side (same direction as normal)
-        double dotProduct = toPlayer.x * portalNormal.x + 
-                           toPlayer.y * portalNormal.y + 
-                           toPlayer.z * portalNormal.z;
-        
-        HytalePortal.getPluginLogger().atInfo().log(
-            "Player pos: (%s, %s, %s), Portal center: (%s, %s, %s), Normal: (%s, %s, %s), Dot: %s",
-            playerPos.x, playerPos.y, playerPos.z,
-            portalCenter.x, portalCenter.y, portalCenter.z,
-            portalNormal.x, portalNormal.y, portalNormal.z,
-            dotProduct
-        );
-        
-        return dotProduct > 0; // Only allow entry from front (same side as normal)
+        duePlayers.clear();
     }
 
     /**
-     * Calculate distance between two positions
+     * Check if a portal has a partner to teleport to
      */
-    private static double calculateDistance(Vector3d pos1, Vector3d pos2) {
-        double dx = pos1.x - pos2.x;
-        double dy = pos1.y - pos2.y;
-        double dz = pos1.z - pos2.z;
-        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    private static boolean isLinked(PortalSnapshot snapshot, Portal portal) {
+        PortalPair portalPair = snapshot.getPortalPair(portal.getOwnerUUID());
+        // The portal must still be the owner's current one, not a replaced one
+        return portalPair != null && portalPair.hasBothPortals() && portalPair.getPortal(portal.getType()) == portal;
     }
 
     /**
-     * Teleport a player through a portal
+     * Queue a teleport for a player through a portal.
+     * Must be called on the thread of the world the player is currently in.
+     * @return true if the teleport was queued
      */
-    private static void teleportPlayer(com.hypixel.hytale.server.core.universe.PlayerRef playerRef, Portal destinationPortal) {
+    private static boolean teleportPlayer(PlayerRef playerRef, World currentWorld, int currentWorldHandle, Portal destinationPortal) {
         if (destinationPortal == null) {
-            return;
+            return false;
         }
 
-        try {
-            // Get destination world
-            World destinationWorld = Universe.get().getWorld(destinationPortal.getWorldName());
-            if (destinationWorld == null) {
-                HytalePortal.getPluginLogger().atInfo().log("[WARN] Cannot teleport player " + playerRef.getUsername() + ": destination world not found");
-                return;
-            }
-
-            // Calculate destination position - exit in front of the destination portal
-            Vector3d portalCenter = destinationPortal.getCenterPosition();
-            Vector3d portalNormal = destinationPortal.getNormalVector();
-            Vector3d currentPlayerPos = playerRef.getTransform().getPosition();
-            
-            HytalePortal.getPluginLogger().atInfo().log(
-                "Portal yaw: %s, Normal: (%s, %s, %s)",
-                destinationPortal.getRotation().y, portalNormal.x, portalNormal.y, portalNormal.z
-            );
-            
-            // Place player 1 block in front of the destination portal
-            Vector3d destinationPos = new Vector3d(
-                portalCenter.x + portalNormal.x * 1.0,
-                portalCenter.y,
-                portalCenter.z + portalNormal.z * 1.0
-            );
-            
-            HytalePortal.getPluginLogger().atInfo().log(
-                "Teleporting from (%s, %s, %s) to (%s, %s, %s)",
-                currentPlayerPos.x, currentPlayerPos.y, currentPlayerPos.z,
-                destinationPos.x, destinationPos.y, destinationPos.z
-            );
-
-            // Teleport the player on the world thread
-            destinationWorld.execute(() -> {
-                try {
-                    // Get entity reference and store
-                    var entityRef = playerRef.getReference();
-                    if (entityRef == null) {
-                        HytalePortal.getPluginLogger().atInfo().log("[WARN] Cannot teleport player: entity ref is null");
-                        return;
-                    }
-                    
-                    var store = entityRef.getStore();
-                    
-                    // Get current rotation components
-                    var headRotation = store.getComponent(entityRef, 
-                        com.hypixel.hytale.server.core.modules.entity.component.HeadRotation.getComponentType());
-                    var transformComponent = store.getComponent(entityRef,
-                        com.hypixel.hytale.server.core.modules.entity.component.TransformComponent.getComponentType());
-                    
-                    if (headRotation == null || transformComponent == null) {
-                        HytalePortal.getPluginLogger().atInfo().log("[WARN] Cannot teleport player: missing components");
-                        return;
-                    }
-                    
-                    Vector3f currentHeadRot = headRotation.getRotation();
-                    Vector3f currentBodyRot = transformComponent.getRotation();
-                    
-                    // Set player rotation to face outward from the destination portal
-                    float portalYaw = destinationPortal.getRotation().y;
-                    Vector3f newBodyRot = new Vector3f(currentBodyRot.x, portalYaw, currentBodyRot.z);
-                    Vector3f newHeadRot = new Vector3f(currentHeadRot.x, portalYaw, currentHeadRot.z);
-                    
-                    // Create teleport component with new rotation to face outward
-                    var teleport = com.hypixel.hytale.server.core.modules.entity.teleport.Teleport.createForPlayer(
-                        destinationPos,
-                        newBodyRot
-                    ).setHeadRotation(newHeadRot);
-                    
-                    // Add the teleport component to trigger teleportation
-                    store.addComponent(entityRef, 
-                        com.hypixel.hytale.server.core.modules.entity.teleport.Teleport.getComponentType(),
-                        teleport);
-
-                    // Record teleport time for cooldown
-                    lastTeleportTime.put(playerRef.getUuid(), System.currentTimeMillis());
-
-                    // Send feedback to player
-                    playerRef.sendMessage(
-                        Message.raw("*Whoosh*")
-                            .color("aqua")
-                            .italic(true)
-                    );
-
-                    HytalePortal.getPluginLogger().atInfo().log("Player " + playerRef.getUsername() + " teleported through portal to " + destinationPos);
-                } catch (Exception e) {
-                    HytalePortal.getPluginLogger().atInfo().log("[ERROR] Error teleporting player " + playerRef.getUsername() + ": " + e.getMessage());
-                    e.printStackTrace();
-                }
-            });
-        } catch (Exception e) {
-            HytalePortal.getPluginLogger().atInfo().log("[ERROR] Error in teleportPlayer: " + e.getMessage());
-            e.printStackTrace();
+        // Get destination world
+        int destinationHandle = destinationPortal.getWorldHandle();
+        World destinationWorld = destinationHandle == currentWorldHandle
+            ? currentWorld
+            : WorldRegistry.get().getWorld(destinationHandle);
+        if (destinationWorld == null) {
+            HytalePortal.getPluginLogger().atInfo().log("[WARN] Cannot teleport player " + playerRef.getUsername() + ": destination world not found");
+            return false;
         }
+
+        commitQueue.enqueue(currentWorld, currentWorldHandle, playerRef, destinationPortal, destinationWorld);
+        return true;
     }
 
     /**
      * Check if the teleport checker is running
      */
-    public static boolean isRunning() {
-        return checkTask != null && !checkTask.isCancelled();
+    public static synchronized boolean isRunning() {
+        return checkJob != null;
+    }
+
+    /**
+     * Detection state of a single world
+     */
+    private static class WorldState {
+        // Remembers each player's previous position to detect swept crossings
+        final PortalCrossingDetector crossingDetector = new PortalCrossingDetector();
+        // Decides which players need a check this tick
+        final PlayerCheckScheduler scheduler = new PlayerCheckScheduler();
+        // Reused buffer of players due this tick
+        final List<PlayerRef> duePlayers = new ArrayList<>();
+        // When this world was last checked
+        long lastCheck;
     }
 }
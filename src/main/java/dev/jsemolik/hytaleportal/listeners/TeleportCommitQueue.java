@@ -0,0 +1,179 @@
+package dev.jsemolik.hytaleportal.listeners;
+
+import com.hypixel.hytale.component.ComponentType;
+import com.hypixel.hytale.math.vector.Vector3d;
+import com.hypixel.hytale.math.vector.Vector3f;
+import com.hypixel.hytale.server.core.Message;
+import com.hypixel.hytale.server.core.modules.entity.component.HeadRotation;
+import com.hypixel.hytale.server.core.modules.entity.component.TransformComponent;
+import com.hypixel.hytale.server.core.modules.entity.teleport.Teleport;
+import com.hypixel.hytale.server.core.universe.PlayerRef;
+import com.hypixel.hytale.server.core.universe.world.World;
+import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
+import dev.jsemolik.hytaleportal.HytalePortal;
+import dev.jsemolik.hytaleportal.portal.Portal;
+import dev.jsemolik.hytaleportal.portal.PortalGeometry;
+import dev.jsemolik.hytaleportal.util.HandleTable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * Collects portal teleports per world and commits them in a single task per tick.
+ * A crowd walking through a portal together costs one world task instead of one per player,
+ * and repeated requests for the same player collapse into the latest one.
+ *
+ * Batches are keyed by the handle of the world the player's entity currently lives in, because
+ * that is the store the Teleport component has to be added to.
+ */
+public class TeleportCommitQueue {
+
+    private final HandleTable<Batch> batches = new HandleTable<>();
+    private final BiConsumer<PlayerRef, Portal> onTeleported;
+
+    /**
+     * @param onTeleported Called on the world thread with the player and exit portal of every committed teleport
+     */
+    public TeleportCommitQueue(BiConsumer<PlayerRef, Portal> onTeleported) {
+        this.onTeleported = onTeleported;
+    }
+
+    /**
+     * Queue a teleport for a player currently in the given world
+     * @param worldHandle Handle of that world (see {@link dev.jsemolik.hytaleportal.util.WorldRegistry})
+     * @param destinationWorld World of the destination portal
+     */
+    public void enqueue(World world, int worldHandle, PlayerRef playerRef, Portal destinationPortal, World destinationWorld) {
+        Batch batch = batches.computeIfAbsent(worldHandle, handle -> new Batch());
+        boolean scheduleDrain;
+        synchronized (batch) {
+            batch.requests.put(playerRef.getUuid(), new Request(playerRef, destinationPortal, destinationWorld));
+            scheduleDrain = !batch.drainScheduled;
+            batch.drainScheduled = true;
+        }
+
+        if (scheduleDrain) {
+            try {
+                world.execute(() -> drain(world, batch));
+            } catch (Exception e) {
+                // World no longer accepts tasks, drop its pending teleports
+                synchronized (batch) {
+                    batch.requests.clear();
+                    batch.drainScheduled = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop all pending teleports
+     */
+    public void clear() {
+        batches.clear();
+    }
+
+    /**
+     * Commit every queued teleport of a world (runs on the world thread)
+     */
+    private void drain(World world, Batch batch) {
+        Request[] requests;
+        synchronized (batch) {
+            requests = batch.requests.values().toArray(new Request[0]);
+            batch.requests.clear();
+            batch.drainScheduled = false;
+        }
+
+        // Resolve component types once for the whole batch
+        ComponentType<EntityStore, HeadRotation> headRotationType = HeadRotation.getComponentType();
+        ComponentType<EntityStore, TransformComponent> transformType = TransformComponent.getComponentType();
+        ComponentType<EntityStore, Teleport> teleportType = Teleport.getComponentType();
+
+        for (Request request : requests) {
+            PlayerRef playerRef = request.playerRef;
+            try {
+                // Get entity reference and store
+                var entityRef = playerRef.getReference();
+                if (entityRef == null) {
+                    HytalePortal.getPluginLogger().atInfo().log("[WARN] Cannot teleport player: entity ref is null");
+                    continue;
+                }
+
+                var store = entityRef.getStore();
+
+                // Get current rotation components
+                HeadRotation headRotation = store.getComponent(entityRef, headRotationType);
+                TransformComponent transformComponent = store.getComponent(entityRef, transformType);
+
+                if (headRotation == null || transformComponent == null) {
+                    HytalePortal.getPluginLogger().atInfo().log("[WARN] Cannot teleport player: missing components");
+                    continue;
+                }
+
+                // One consistent read of the destination; a portal removed since the teleport was queued is skipped
+                Portal destinationPortal = request.destinationPortal;
+                PortalGeometry destination = destinationPortal.read();
+                if (destination == null) {
+                    continue;
+                }
+
+                // Place player 1 block in front of the destination portal
+                Vector3d destinationPos = new Vector3d(
+                    destination.centerX + destination.normalX * 1.0,
+                    destination.centerY,
+                    destination.centerZ + destination.normalZ * 1.0
+                );
+
+                Vector3f currentHeadRot = headRotation.getRotation();
+                Vector3f currentBodyRot = transformComponent.getRotation();
+
+                // Set player rotation to face outward from the destination portal
+                float portalYaw = destination.getYaw();
+                Vector3f newBodyRot = new Vector3f(currentBodyRot.x, portalYaw, currentBodyRot.z);
+                Vector3f newHeadRot = new Vector3f(currentHeadRot.x, portalYaw, currentHeadRot.z);
+
+                // Create teleport component with new rotation to face outward
+                // (cross-world teleports carry the destination world)
+                Teleport teleport = (request.destinationWorld == world
+                    ? Teleport.createForPlayer(destinationPos, newBodyRot)
+                    : Teleport.createForPlayer(request.destinationWorld, destinationPos, newBodyRot)
+                ).setHeadRotation(newHeadRot);
+
+                // Add the teleport component to trigger teleportation
+                store.addComponent(entityRef, teleportType, teleport);
+
+                onTeleported.accept(playerRef, destinationPortal);
+
+                // Send feedback to player
+                playerRef.sendMessage(
+                    Message.raw("*Whoosh*")
+                        .color("aqua")
+                        .italic(true)
+                );
+
+                HytalePortal.getPluginLogger().atInfo().log("Player " + playerRef.getUsername() + " teleported through portal to " + destinationPos);
+            } catch (Exception e) {
+                HytalePortal.getPluginLogger().atInfo().withCause(e).log("[ERROR] Error teleporting player " + playerRef.getUsername() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static class Batch {
+        // Latest request per player, in arrival order
+        final Map<UUID, Request> requests = new LinkedHashMap<>();
+        boolean drainScheduled;
+    }
+
+    private static class Request {
+        final PlayerRef playerRef;
+        final Portal destinationPortal;
+        final World destinationWorld;
+
+        Request(PlayerRef playerRef, Portal destinationPortal, World destinationWorld) {
+            this.playerRef = playerRef;
+            this.destinationPortal = destinationPortal;
+            this.destinationWorld = destinationWorld;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package dev.jsemolik.hytaleportal.listeners;
+
+import com.hypixel.hytale.server.core.universe.world.events.AddWorldEvent;
+import com.hypixel.hytale.server.core.universe.world.events.RemoveWorldEvent;
+import dev.jsemolik.hytaleportal.HytalePortal;
+import dev.jsemolik.hytaleportal.util.WorldRegistry;
+
+/**
+ * Listens for worlds being loaded and unloaded so the cached worlds in the {@link WorldRegistry} stay current
+ * and portal blocks queued for a world that was not loaded yet get placed.
+ */
+public class WorldLifecycleListener {
+
+    /**
+     * Register this listener with the event registry
+     */
+    public static void register(HytalePortal plugin) {
+        // World events are keyed by world, so listen to all of them
+        plugin.getEventRegistry().registerGlobal(AddWorldEvent.class, event -> {
+            WorldRegistry.get().invalidate(event.getWorld().getName());
+            // Portal blocks may have been waiting for this world
+            if (plugin.getPortalVisualizer() != null) {
+                plugin.getPortalVisualizer().onWorldAdded(WorldRegistry.get().handleOf(event.getWorld()));
+            }
+        });
+        plugin.getEventRegistry().registerGlobal(RemoveWorldEvent.class, event -> {
+            WorldRegistry.get().invalidate(event.getWorld().getName());
+            HytalePortal.getPluginLogger().atInfo().log("World " + event.getWorld().getName() + " removed, its portals stay inactive until it is loaded again");
+        });
+    }
+}
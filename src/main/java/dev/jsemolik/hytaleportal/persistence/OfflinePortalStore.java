@@ -0,0 +1,288 @@
+package dev.jsemolik.hytaleportal.persistence;
+
+import dev.jsemolik.hytaleportal.portal.Portal;
+import dev.jsemolik.hytaleportal.portal.PortalPair;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * On-disk store for the portal pairs of offline owners that were evicted from memory.
+ *
+ * Each evicted pair is one owner file (PortalCodec frames) under owners/. Region files under
+ * regions/&lt;world&gt;/ list the owners with a portal in that 64x64 column, so pairs can be
+ * found again when a player comes near. Only the set of occupied regions is kept in memory,
+ * which is bounded by world area rather than by the number of stored portals.
+ *
+ * Not thread safe; owned by the retention thread.
+ */
+public class OfflinePortalStore {
+
+    /**
+     * Region size as a shift (64 blocks)
+     */
+    public static final int REGION_SHIFT = 6;
+
+    private final Path ownersDirectory;
+    private final Path regionsDirectory;
+
+    // World name -> packed regions that have a region file
+    private final Map<String, Set<Long>> occupiedRegions = new HashMap<>();
+    private volatile int occupiedCount;
+
+    public OfflinePortalStore(Path dataDirectory) {
+        Path root = dataDirectory.resolve("offline");
+        this.ownersDirectory = root.resolve("owners");
+        this.regionsDirectory = root.resolve("regions");
+    }
+
+    /**
+     * Create the directories and load the set of occupied regions
+     */
+    public void open() throws IOException {
+        Files.createDirectories(ownersDirectory);
+        Files.createDirectories(regionsDirectory);
+
+        occupiedRegions.clear();
+        int count = 0;
+        try (DirectoryStream<Path> worlds = Files.newDirectoryStream(regionsDirectory)) {
+            for (Path worldDirectory : worlds) {
+                String worldName = URLDecoder.decode(worldDirectory.getFileName().toString(), StandardCharsets.UTF_8);
+                try (DirectoryStream<Path> regions = Files.newDirectoryStream(worldDirectory, "*.bin")) {
+                    for (Path regionFile : regions) {
+                        String[] parts = regionFile.getFileName().toString().split("\\.");
+                        if (parts.length != 3) {
+                            continue;
+                        }
+                        long region = packRegion(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+                        if (occupiedRegions.computeIfAbsent(worldName, name -> new HashSet<>()).add(region)) {
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+        occupiedCount = count;
+    }
+
+    /**
+     * Check whether nothing is stored (safe to call from any thread)
+     */
+    public boolean isEmpty() {
+        return occupiedCount == 0;
+    }
+
+    /**
+     * Check whether any stored pair has a portal in the given region
+     */
+    public boolean hasRegion(String worldName, long region) {
+        Set<Long> regions = occupiedRegions.get(worldName);
+        return regions != null && regions.contains(region);
+    }
+
+    /**
+     * Durably write a pair; returns once it is safe to drop the pair from memory
+     */
+    public void store(PortalPair pair) throws IOException {
+        UUID ownerUUID = pair.getPlayerUUID();
+
+        // Owner file: write to a temp file, fsync, then atomically replace
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        for (Portal portal : new Portal[] { pair.getBluePortal(), pair.getOrangePortal() }) {
+            if (portal != null) {
+                bytes.write(PortalCodec.encodeSet(ownerUUID, portal));
+            }
+        }
+        Path ownerFile = ownerFile(ownerUUID);
+        Path tempFile = ownerFile.resolveSibling(ownerFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()));
+            channel.force(true);
+        }
+        Files.move(tempFile, ownerFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Region files: point every region the pair touches back at the owner
+        for (Portal portal : new Portal[] { pair.getBluePortal(), pair.getOrangePortal() }) {
+            if (portal != null) {
+                addToRegion(portal.getWorldName(), toRegion(portal.getBlockX()), toRegion(portal.getBlockZ()), ownerUUID);
+            }
+        }
+    }
+
+    /**
+     * Read an owner's stored pair
+     * @return The pair, or null if nothing is stored for the owner
+     */
+    @Nullable
+    public PortalPair load(UUID ownerUUID) throws IOException {
+        Path ownerFile = ownerFile(ownerUUID);
+        if (!Files.exists(ownerFile)) {
+            return null;
+        }
+
+        Map<UUID, PortalPair> pairs = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(ownerFile)))) {
+            byte[] payload;
+            while ((payload = PortalCodec.readFrame(in)) != null) {
+                PortalCodec.apply(payload, pairs);
+            }
+        }
+        return pairs.get(ownerUUID);
+    }
+
+    /**
+     * Delete an owner's stored pair (after it was loaded back into memory).
+     * The owner is taken out of the region files of its portals first, and regions left without
+     * owners are forgotten, so nothing keeps pointing at the pair.
+     */
+    public void delete(UUID ownerUUID) throws IOException {
+        PortalPair pair = load(ownerUUID);
+        if (pair != null) {
+            for (Portal portal : new Portal[] { pair.getBluePortal(), pair.getOrangePortal() }) {
+                if (portal != null) {
+                    removeFromRegion(portal.getWorldName(), toRegion(portal.getBlockX()), toRegion(portal.getBlockZ()), ownerUUID);
+                    portal.release();
+                }
+            }
+        }
+        Files.deleteIfExists(ownerFile(ownerUUID));
+    }
+
+    /**
+     * List the owners that have a stored portal in a region
+     */
+    public List<UUID> readRegion(String worldName, long region) throws IOException {
+        Path regionFile = regionFile(worldName, region);
+        if (!Files.exists(regionFile)) {
+            return List.of();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(regionFile));
+        Set<UUID> owners = new LinkedHashSet<>();
+        while (buffer.remaining() >= 16) {
+            owners.add(new UUID(buffer.getLong(), buffer.getLong()));
+        }
+        return new ArrayList<>(owners);
+    }
+
+    /**
+     * Forget a region once all of its owners have been loaded back
+     */
+    public void dropRegion(String worldName, long region) throws IOException {
+        Files.deleteIfExists(regionFile(worldName, region));
+        Set<Long> regions = occupiedRegions.get(worldName);
+        if (regions != null && regions.remove(region)) {
+            occupiedCount--;
+            if (regions.isEmpty()) {
+                occupiedRegions.remove(worldName);
+            }
+        }
+    }
+
+    private void addToRegion(String worldName, int regionX, int regionZ, UUID ownerUUID) throws IOException {
+        long region = packRegion(regionX, regionZ);
+        if (readRegion(worldName, region).contains(ownerUUID)) {
+            return;
+        }
+
+        Path regionFile = regionFile(worldName, region);
+        Files.createDirectories(regionFile.getParent());
+        try (FileChannel channel = FileChannel.open(regionFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer entry = ByteBuffer.allocate(16);
+            entry.putLong(ownerUUID.getMostSignificantBits()).putLong(ownerUUID.getLeastSignificantBits()).flip();
+            writeFully(channel, entry);
+            channel.force(false);
+        }
+
+        if (occupiedRegions.computeIfAbsent(worldName, name -> new HashSet<>()).add(region)) {
+            occupiedCount++;
+        }
+    }
+
+    private void removeFromRegion(String worldName, int regionX, int regionZ, UUID ownerUUID) throws IOException {
+        long region = packRegion(regionX, regionZ);
+        List<UUID> owners = new ArrayList<>(readRegion(worldName, region));
+        if (!owners.remove(ownerUUID)) {
+            return;
+        }
+        if (owners.isEmpty()) {
+            dropRegion(worldName, region);
+            return;
+        }
+
+        // Rewrite the remaining owners: temp file, fsync, then atomically replace
+        ByteBuffer entries = ByteBuffer.allocate(owners.size() * 16);
+        for (UUID owner : owners) {
+            entries.putLong(owner.getMostSignificantBits()).putLong(owner.getLeastSignificantBits());
+        }
+        entries.flip();
+        Path regionFile = regionFile(worldName, region);
+        Path tempFile = regionFile.resolveSibling(regionFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, entries);
+            channel.force(false);
+        }
+        Files.move(tempFile, regionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path ownerFile(UUID ownerUUID) {
+        return ownersDirectory.resolve(ownerUUID + ".bin");
+    }
+
+    private Path regionFile(String worldName, long region) {
+        String worldDirectory = URLEncoder.encode(worldName, StandardCharsets.UTF_8);
+        return regionsDirectory.resolve(worldDirectory).resolve(unpackRegionX(region) + "." + unpackRegionZ(region) + ".bin");
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Convert a block coordinate to a region coordinate
+     */
+    public static int toRegion(int blockCoordinate) {
+        return blockCoordinate >> REGION_SHIFT;
+    }
+
+    /**
+     * Pack region coordinates into a single key
+     */
+    public static long packRegion(int regionX, int regionZ) {
+        return ((long) regionX << 32) | (regionZ & 0xFFFFFFFFL);
+    }
+
+    private static int unpackRegionX(long region) {
+        return (int) (region >> 32);
+    }
+
+    private static int unpackRegionZ(long region) {
+        return (int) region;
+    }
+}
@@ -0,0 +1,165 @@
+package dev.jsemolik.hytaleportal.persistence;
+
+import com.hypixel.hytale.math.vector.Vector3d;
+import com.hypixel.hytale.math.vector.Vector3f;
+import dev.jsemolik.hytaleportal.portal.Portal;
+import dev.jsemolik.hytaleportal.portal.PortalPair;
+import dev.jsemolik.hytaleportal.portal.PortalType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Binary record format shared by the portal journal, snapshot and offline store.
+ * Every record is a frame: [int length][int crc32][payload], where the payload is one
+ * operation on a player's portal pair.
+ */
+final class PortalCodec {
+
+    private static final byte OP_SET = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_REMOVE_ALL = 3;
+
+    /**
+     * Upper bound on a payload; anything larger is treated as corruption
+     */
+    private static final int MAX_PAYLOAD = 4096;
+
+    private PortalCodec() {
+    }
+
+    /**
+     * Encode "this portal was created or replaced"
+     */
+    static byte[] encodeSet(UUID ownerUUID, Portal portal) {
+        return encode(OP_SET, ownerUUID, portal.getType(), portal);
+    }
+
+    /**
+     * Encode "this player's portal of the given type was removed"
+     */
+    static byte[] encodeRemove(UUID ownerUUID, PortalType type) {
+        return encode(OP_REMOVE, ownerUUID, type, null);
+    }
+
+    /**
+     * Encode "all of this player's portals were removed"
+     */
+    static byte[] encodeRemoveAll(UUID ownerUUID) {
+        return encode(OP_REMOVE_ALL, ownerUUID, null, null);
+    }
+
+    /**
+     * Encode a record as a frame: [int length][int crc32][payload]
+     */
+    private static byte[] encode(byte op, UUID ownerUUID, PortalType type, Portal portal) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // Length, patched below
+            out.writeInt(0); // CRC, patched below
+            out.writeByte(op);
+            out.writeLong(ownerUUID.getMostSignificantBits());
+            out.writeLong(ownerUUID.getLeastSignificantBits());
+            if (op != OP_REMOVE_ALL) {
+                out.writeByte(type.ordinal());
+            }
+            if (op == OP_SET) {
+                out.writeDouble(portal.getPosition().x);
+                out.writeDouble(portal.getPosition().y);
+                out.writeDouble(portal.getPosition().z);
+                out.writeFloat(portal.getRotation().x);
+                out.writeFloat(portal.getRotation().y);
+                out.writeFloat(portal.getRotation().z);
+                out.writeUTF(portal.getWorldName());
+                out.writeLong(portal.getCreationTime());
+            }
+
+            byte[] frame = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(frame, 8, frame.length - 8);
+            ByteBuffer.wrap(frame).putInt(frame.length - 8).putInt((int) crc.getValue());
+            return frame;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode portal record", e);
+        }
+    }
+
+    /**
+     * Read one frame's payload
+     * @return The payload, or null at end of file or on a torn/corrupt frame
+     */
+    static byte[] readFrame(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int expectedCrc = in.readInt();
+            if (length <= 0 || length > MAX_PAYLOAD) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, length);
+            return (int) crc.getValue() == expectedCrc ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Apply one decoded record to the pairs being rebuilt
+     */
+    static void apply(byte[] payload, Map<UUID, PortalPair> pairs) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        UUID ownerUUID = new UUID(in.readLong(), in.readLong());
+
+        if (op == OP_REMOVE_ALL) {
+            PortalPair removed = pairs.remove(ownerUUID);
+            if (removed != null) {
+                release(removed.getBluePortal());
+                release(removed.getOrangePortal());
+            }
+            return;
+        }
+
+        PortalType type = PortalType.values()[in.readByte()];
+        PortalPair pair = pairs.getOrDefault(ownerUUID, new PortalPair(ownerUUID));
+
+        // Portals overwritten during replay never reach the PortalManager; free them here
+        release(pair.getPortal(type));
+
+        if (op == OP_SET) {
+            Vector3d position = new Vector3d(in.readDouble(), in.readDouble(), in.readDouble());
+            Vector3f rotation = new Vector3f(in.readFloat(), in.readFloat(), in.readFloat());
+            String worldName = in.readUTF();
+            long creationTime = in.readLong();
+            pair = pair.withPortal(new Portal(ownerUUID, type, position, rotation, worldName, creationTime));
+        } else if (op == OP_REMOVE) {
+            pair = pair.withoutPortal(type);
+        } else {
+            throw new IOException("Unknown portal journal op " + op);
+        }
+
+        if (pair.hasAnyPortal()) {
+            pairs.put(ownerUUID, pair);
+        } else {
+            pairs.remove(ownerUUID);
+        }
+    }
+
+    private static void release(Portal portal) {
+        if (portal != null) {
+            portal.release();
+        }
+    }
+}
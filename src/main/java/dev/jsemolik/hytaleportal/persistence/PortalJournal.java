@@ -0,0 +1,404 @@
+package dev.jsemolik.hytaleportal.persistence;
+
+import dev.jsemolik.hytaleportal.HytalePortal;
+import dev.jsemolik.hytaleportal.portal.Portal;
+import dev.jsemolik.hytaleportal.portal.PortalManager;
+import dev.jsemolik.hytaleportal.portal.PortalPair;
+import dev.jsemolik.hytaleportal.portal.PortalType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Crash-safe persistence for portals: an append-only binary journal plus periodic compacted snapshots.
+ *
+ * Records use the {@link PortalCodec} frame format.
+ * Portal changes are encoded on the calling thread and handed to a background writer, so the
+ * world thread never waits on disk. The writer appends whatever has queued up and fsyncs once
+ * per batch. Every record is length-prefixed and CRC-checked; a torn tail left by a crash is
+ * cut off on the next load.
+ *
+ * Both files carry an epoch. A snapshot with epoch N contains everything written to journals
+ * older than N, so the journal is only replayed when its epoch matches the snapshot's. A snapshot
+ * that cannot be read is moved aside and the journal is replayed on its own (recovering what
+ * changed since that snapshot), after which a fresh snapshot is written right away.
+ *
+ * Only the writer thread touches the files once the journal is open, including the final flush
+ * and snapshot when the journal is closed. Stores that must be as durable as the portals (see
+ * {@link #flushAlongside}) are flushed by the same thread after every batch.
+ */
+public class PortalJournal {
+
+    private static final int SNAPSHOT_MAGIC = 0x50534E50; // "PSNP"
+    private static final int JOURNAL_MAGIC = 0x504A524E;  // "PJRN"
+    private static final int JOURNAL_HEADER_SIZE = 4 + 8;
+
+    /**
+     * Compact into a fresh snapshot once the journal holds this many records
+     */
+    private static final int COMPACT_THRESHOLD = 10_000;
+
+    /**
+     * How long close() waits for the writer to finish the final flush and snapshot
+     */
+    private static final long CLOSE_TIMEOUT_MS = 30_000;
+
+    private static final String SNAPSHOT_FILE = "portals.snapshot";
+    private static final String JOURNAL_FILE = "portals.journal";
+
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private final LinkedBlockingQueue<byte[]> pending = new LinkedBlockingQueue<>();
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private long syncedCount; // guarded by this
+
+    private FileChannel journal;
+    private long epoch;
+    private int journalRecords;
+    private long writtenCount;
+    private Thread writer;
+    private volatile boolean running;
+    private volatile Flushable companion;
+
+    public PortalJournal(Path dataDirectory) {
+        this.snapshotPath = dataDirectory.resolve(SNAPSHOT_FILE);
+        this.journalPath = dataDirectory.resolve(JOURNAL_FILE);
+    }
+
+    /**
+     * Rebuild the portal pairs from snapshot plus journal tail, then open the journal for appending.
+     * @return The restored portal pairs keyed by owner
+     */
+    public Map<UUID, PortalPair> open() throws IOException {
+        Files.createDirectories(snapshotPath.getParent());
+        Map<UUID, PortalPair> pairs = new HashMap<>();
+
+        // Snapshot first
+        long snapshotEpoch = 0;
+        boolean snapshotLost = false;
+        if (Files.exists(snapshotPath)) {
+            try {
+                snapshotEpoch = readSnapshot(pairs);
+            } catch (IOException e) {
+                // Keep the bad file for inspection and recover what the journal still has
+                Path corruptPath = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".corrupt-" + System.currentTimeMillis());
+                Files.move(snapshotPath, corruptPath, StandardCopyOption.REPLACE_EXISTING);
+                HytalePortal.getPluginLogger().atInfo().log(
+                    "[ERROR] Could not read portal snapshot (%s), moved it to %s; recovering from the journal only",
+                    e.getMessage(), corruptPath.getFileName()
+                );
+                releaseAll(pairs);
+                snapshotLost = true;
+            }
+        }
+
+        // Then the journal tail, if it belongs to this snapshot (any journal, if the snapshot was lost)
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long validLength = 0;
+        if (journal.size() >= JOURNAL_HEADER_SIZE) {
+            journal.position(0);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(journal)));
+            int magic = in.readInt();
+            long journalEpoch = in.readLong();
+            if (magic == JOURNAL_MAGIC && (snapshotLost || journalEpoch == snapshotEpoch)) {
+                snapshotEpoch = journalEpoch;
+                validLength = JOURNAL_HEADER_SIZE;
+                byte[] payload;
+                while ((payload = PortalCodec.readFrame(in)) != null) {
+                    PortalCodec.apply(payload, pairs);
+                    validLength += 8 + payload.length;
+                    journalRecords++;
+                }
+            }
+        }
+
+        epoch = snapshotEpoch;
+        if (snapshotLost) {
+            // Nothing on disk covers the journal any more: write what was recovered as the new snapshot
+            writeSnapshot(pairs.values());
+        } else if (validLength == 0) {
+            // Missing, stale or foreign journal: start a fresh one for this epoch
+            resetJournal();
+        } else if (validLength < journal.size()) {
+            // Cut off a torn tail left by a crash
+            HytalePortal.getPluginLogger().atInfo().log(
+                "[WARN] Portal journal had %d trailing bytes of incomplete data, truncating",
+                journal.size() - validLength
+            );
+            journal.truncate(validLength);
+            journal.force(false);
+        }
+        journal.position(journal.size());
+
+        running = true;
+        writer = new Thread(this::writeLoop, "HytalePortal-Journal");
+        writer.setDaemon(true);
+        writer.start();
+
+        return pairs;
+    }
+
+    /**
+     * Record that a portal was created or replaced
+     */
+    public void recordSet(UUID ownerUUID, Portal portal) {
+        enqueue(PortalCodec.encodeSet(ownerUUID, portal));
+    }
+
+    /**
+     * Record that a single portal was removed
+     */
+    public void recordRemove(UUID ownerUUID, PortalType type) {
+        enqueue(PortalCodec.encodeRemove(ownerUUID, type));
+    }
+
+    /**
+     * Record that all portals of a player were removed
+     */
+    public void recordRemoveAll(UUID ownerUUID) {
+        enqueue(PortalCodec.encodeRemoveAll(ownerUUID));
+    }
+
+    /**
+     * Block until every record recorded so far is on disk (not to be called from a world thread)
+     */
+    public void sync() throws InterruptedException {
+        long target = enqueuedCount.get();
+        synchronized (this) {
+            while (syncedCount < target && running) {
+                wait(100);
+            }
+        }
+    }
+
+    /**
+     * Flush everything that is queued, write a final compacted snapshot and close the files.
+     * The writer thread does this as its last step; this waits for it.
+     */
+    public void close() {
+        // Not interrupted: an interrupt would close the file channel mid-write
+        running = false;
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            // Never write next to it; it finishes on its own if the process lives long enough
+            HytalePortal.getPluginLogger().atInfo().log(
+                "[WARN] Portal journal writer did not finish its final snapshot within %d seconds",
+                CLOSE_TIMEOUT_MS / 1000
+            );
+        }
+        writer = null;
+    }
+
+    /**
+     * Flush another store from the writer thread after every batch, and at least every poll interval
+     * while it has changes of its own (null to stop)
+     */
+    public void flushAlongside(Flushable companion) {
+        this.companion = companion;
+    }
+
+    private void enqueue(byte[] frame) {
+        // Unbounded queue: never blocks the calling (world) thread
+        pending.offer(frame);
+        enqueuedCount.incrementAndGet();
+    }
+
+    /**
+     * Background writer: append each batch that queued up, then fsync once for the whole batch.
+     * Once stopped, flush what is left, write the final snapshot and close the journal.
+     */
+    private void writeLoop() {
+        try {
+            writeBatches();
+            writePending();
+            compact();
+            flushCompanion();
+        } catch (IOException e) {
+            HytalePortal.getPluginLogger().atInfo().log("[ERROR] Error closing portal journal: %s", e.getMessage());
+        } finally {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // Nothing left to lose
+            }
+            synchronized (this) {
+                notifyAll(); // Release sync() callers
+            }
+        }
+    }
+
+    private void writeBatches() {
+        while (running) {
+            try {
+                byte[] first = pending.poll(200, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    writeFrame(first);
+                    writePending();
+
+                    if (journalRecords >= COMPACT_THRESHOLD) {
+                        compact();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                HytalePortal.getPluginLogger().atInfo().log("[ERROR] Error writing portal journal: %s", e.getMessage());
+            }
+            flushCompanion();
+        }
+    }
+
+    private void flushCompanion() {
+        Flushable store = companion;
+        if (store == null) {
+            return;
+        }
+        try {
+            store.flush();
+        } catch (IOException e) {
+            HytalePortal.getPluginLogger().atInfo().log("[ERROR] Error flushing %s: %s", store.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+    private void writePending() throws IOException {
+        List<byte[]> batch = new ArrayList<>();
+        pending.drainTo(batch);
+        for (byte[] frame : batch) {
+            writeFrame(frame);
+        }
+        journal.force(false);
+
+        synchronized (this) {
+            syncedCount = writtenCount;
+            notifyAll();
+        }
+    }
+
+    private void writeFrame(byte[] frame) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journalRecords++;
+        writtenCount++;
+    }
+
+    /**
+     * Write the current portal state as a new snapshot and start a new, empty journal epoch.
+     * Records still queued are appended to the new journal; replaying them again is harmless
+     * because every record sets the final value of one (owner, type) slot.
+     */
+    private void compact() throws IOException {
+        writeSnapshot(PortalManager.getInstance().getSnapshot().getPortalPairs().values());
+    }
+
+    /**
+     * Write the given pairs as the snapshot of the next epoch and start that epoch's empty journal
+     */
+    private void writeSnapshot(Collection<PortalPair> pairs) throws IOException {
+        long nextEpoch = epoch + 1;
+        Path tempPath = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            List<byte[]> frames = new ArrayList<>();
+            for (PortalPair pair : pairs) {
+                if (pair.getBluePortal() != null) {
+                    frames.add(PortalCodec.encodeSet(pair.getPlayerUUID(), pair.getBluePortal()));
+                }
+                if (pair.getOrangePortal() != null) {
+                    frames.add(PortalCodec.encodeSet(pair.getPlayerUUID(), pair.getOrangePortal()));
+                }
+            }
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(nextEpoch);
+            out.writeInt(frames.size());
+            for (byte[] frame : frames) {
+                out.write(frame);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // The snapshot now supersedes the journal; a crash before the reset leaves a stale epoch that is ignored
+        epoch = nextEpoch;
+        resetJournal();
+    }
+
+    /**
+     * Read the snapshot into the pairs
+     * @return The snapshot's epoch
+     */
+    private long readSnapshot(Map<UUID, PortalPair> pairs) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a portal snapshot: " + snapshotPath);
+            }
+            long snapshotEpoch = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] payload = PortalCodec.readFrame(in);
+                if (payload == null) {
+                    throw new IOException("Portal snapshot is truncated or corrupt: " + snapshotPath);
+                }
+                PortalCodec.apply(payload, pairs);
+            }
+            return snapshotEpoch;
+        }
+    }
+
+    /**
+     * Drop partly restored pairs, giving their portals' storage back
+     */
+    private static void releaseAll(Map<UUID, PortalPair> pairs) {
+        for (PortalPair pair : pairs.values()) {
+            if (pair.getBluePortal() != null) {
+                pair.getBluePortal().release();
+            }
+            if (pair.getOrangePortal() != null) {
+                pair.getOrangePortal().release();
+            }
+        }
+        pairs.clear();
+    }
+
+    private void resetJournal() throws IOException {
+        journal.truncate(0);
+        journal.position(0);
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC).putLong(epoch).flip();
+        while (header.hasRemaining()) {
+            journal.write(header);
+        }
+        journal.force(false);
+        journalRecords = 0;
+    }
+}
@@ -0,0 +1,397 @@
+package dev.jsemolik.hytaleportal.portal;
+
+import com.hypixel.hytale.math.util.ChunkUtil;
+import com.hypixel.hytale.server.core.asset.type.blocktype.config.BlockType;
+import com.hypixel.hytale.server.core.universe.world.World;
+import com.hypixel.hytale.server.core.universe.world.chunk.WorldChunk;
+import dev.jsemolik.hytaleportal.HytalePortal;
+import dev.jsemolik.hytaleportal.util.HandleTable;
+import dev.jsemolik.hytaleportal.util.LongIntHashMap;
+import dev.jsemolik.hytaleportal.util.WorldRegistry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers the blocks that portal frames replaced, so removing a portal puts the wall back.
+ *
+ * Per world, a primitive map from packed block position to the original block id and rotation
+ * (a few bytes per frame block, no objects). Each world's map is only changed on that world's
+ * thread; the lock per map is for saving.
+ *
+ * Portal blocks (and those of portals moved to disk) stay in the world across restarts and
+ * crashes, so the store is as durable as the portals: every change is encoded on the world thread
+ * and appended to a journal by {@link #flush()}, which the portal journal's writer calls after
+ * each batch (see {@link dev.jsemolik.hytaleportal.persistence.PortalJournal#flushAlongside}).
+ * {@link #save} compacts everything into a snapshot and starts a new journal epoch, like the
+ * portal journal does.
+ */
+public class OriginalBlockStore implements Flushable {
+
+    private static final String SNAPSHOT_FILE = "original-blocks.bin";
+    private static final String JOURNAL_FILE = "original-blocks.journal";
+    private static final int SNAPSHOT_MAGIC = 0x48504F53; // "HPOS"
+    private static final int JOURNAL_MAGIC = 0x48504F4A;  // "HPOJ"
+    private static final int JOURNAL_HEADER_SIZE = 4 + 8;
+
+    private static final byte OP_RECORD = 1;
+    private static final byte OP_RESTORE = 2;
+
+    /**
+     * Upper bound on a journal payload (op, world name, position, value); anything larger is corruption
+     */
+    private static final int MAX_PAYLOAD = 1024;
+
+    /**
+     * Compact into a fresh snapshot once the journal holds this many records
+     */
+    private static final int COMPACT_THRESHOLD = 50_000;
+
+    // Value layout: (block id << 8 | rotation) + 1, so air with rotation 0 is not the empty value
+    private static final int ROTATION_BITS = 8;
+
+    // Direct set: no drops, no break effects
+    private static final int SET_SETTINGS = 0;
+
+    private final HandleTable<LongIntHashMap> worlds = new HandleTable<>();
+
+    // Encoded changes waiting for the next flush; only filled while the journal is open
+    private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    private volatile boolean journaling;
+
+    // Files, guarded by this
+    private Path dataDirectory;
+    private FileChannel journal;
+    private long epoch;
+    private int journalRecords;
+
+    /**
+     * Remember the block at a position before a portal frame replaces it (world thread).
+     * Nothing is recorded if the position already holds a remembered block or a portal frame.
+     */
+    void record(World world, int worldHandle, int x, int y, int z, int portalBlockId) {
+        LongIntHashMap originals = worlds.computeIfAbsent(worldHandle, handle -> new LongIntHashMap());
+        long key = PortalStore.packPosition(x, y, z);
+        synchronized (originals) {
+            if (originals.containsKey(key)) {
+                return; // Still covered by an earlier portal
+            }
+            int blockId = world.getBlock(x, y, z);
+            if (blockId == portalBlockId) {
+                return; // A frame we know nothing about (e.g. from before this store existed)
+            }
+            int value = ((blockId << ROTATION_BITS) | world.getBlockRotationIndex(x, y, z)) + 1;
+            originals.put(key, value);
+            journal(OP_RECORD, worldHandle, key, value);
+        }
+    }
+
+    /**
+     * Put the remembered block back at a position (world thread)
+     * @return false if nothing was remembered there
+     */
+    boolean restore(World world, int worldHandle, int x, int y, int z) {
+        LongIntHashMap originals = worlds.get(worldHandle);
+        if (originals == null) {
+            return false;
+        }
+        long key = PortalStore.packPosition(x, y, z);
+        int value;
+        synchronized (originals) {
+            value = originals.remove(key);
+            if (value == 0) {
+                return false;
+            }
+            journal(OP_RESTORE, worldHandle, key, 0);
+        }
+
+        int blockId = (value - 1) >>> ROTATION_BITS;
+        int rotation = (value - 1) & ((1 << ROTATION_BITS) - 1);
+        BlockType blockType = BlockType.getAssetMap().getAsset(blockId);
+        if (blockType == null) {
+            return false; // Block type no longer exists
+        }
+        WorldChunk chunk = world.getChunkIfLoaded(ChunkUtil.indexChunkFromBlock(x, z));
+        if (chunk != null) {
+            chunk.setBlock(x, y, z, blockId, blockType, rotation, 0, SET_SETTINGS);
+        } else {
+            world.setBlock(x, y, z, blockType.getId());
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of remembered blocks across all worlds
+     */
+    public int size() {
+        int[] size = new int[1];
+        worlds.forEach(originals -> {
+            synchronized (originals) {
+                size[0] += originals.size();
+            }
+        });
+        return size[0];
+    }
+
+    /**
+     * Load the remembered blocks from a data directory (snapshot plus journal tail) and open the
+     * journal for appending
+     */
+    public synchronized void open(Path dataDirectory) throws IOException {
+        Files.createDirectories(dataDirectory);
+        this.dataDirectory = dataDirectory;
+
+        long snapshotEpoch = 0;
+        Path snapshotPath = dataDirectory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshotPath)) {
+            snapshotEpoch = readSnapshot(snapshotPath);
+        }
+
+        // Replay the journal tail if it belongs to this snapshot
+        journal = FileChannel.open(dataDirectory.resolve(JOURNAL_FILE),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long validLength = 0;
+        if (journal.size() >= JOURNAL_HEADER_SIZE) {
+            journal.position(0);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(journal)));
+            if (in.readInt() == JOURNAL_MAGIC && in.readLong() == snapshotEpoch) {
+                validLength = JOURNAL_HEADER_SIZE;
+                byte[] payload;
+                while ((payload = readFrame(in)) != null) {
+                    apply(payload);
+                    validLength += 8 + payload.length;
+                    journalRecords++;
+                }
+            }
+        }
+
+        epoch = snapshotEpoch;
+        if (validLength == 0) {
+            // Missing, stale or foreign journal: start a fresh one for this epoch
+            resetJournal();
+        } else if (validLength < journal.size()) {
+            // Cut off a torn tail left by a crash
+            journal.truncate(validLength);
+            journal.force(false);
+        }
+        journal.position(journal.size());
+        journaling = true;
+    }
+
+    /**
+     * Append the changes made since the last flush to the journal and sync it (not on a world thread)
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (journal == null || pending.isEmpty()) {
+            return;
+        }
+        byte[] frame;
+        while ((frame = pending.poll()) != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+            journalRecords++;
+        }
+        journal.force(false);
+
+        if (journalRecords >= COMPACT_THRESHOLD) {
+            save();
+        }
+    }
+
+    /**
+     * Write every remembered block as the snapshot of the next epoch and start that epoch's empty
+     * journal (replaces the previous snapshot atomically). Changes still queued go to the new journal;
+     * replaying them again is harmless because each one sets the final value of one position.
+     */
+    public synchronized void save() throws IOException {
+        if (dataDirectory == null) {
+            return; // Never opened
+        }
+        long nextEpoch = epoch + 1;
+        Path file = dataDirectory.resolve(SNAPSHOT_FILE);
+        Path tmp = dataDirectory.resolve(SNAPSHOT_FILE + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(nextEpoch);
+            List<Integer> handles = new ArrayList<>();
+            for (int handle = 0, limit = worlds.length(); handle < limit; handle++) {
+                if (worlds.get(handle) != null) {
+                    handles.add(handle);
+                }
+            }
+            out.writeInt(handles.size());
+
+            for (int handle : handles) {
+                LongIntHashMap originals = worlds.get(handle);
+                out.writeUTF(WorldRegistry.get().nameOf(handle));
+                synchronized (originals) {
+                    out.writeInt(originals.size());
+                    IOException[] failure = new IOException[1];
+                    originals.forEach((key, value) -> {
+                        try {
+                            out.writeLong(key);
+                            out.writeInt(value);
+                        } catch (IOException e) {
+                            failure[0] = e;
+                        }
+                    });
+                    if (failure[0] != null) {
+                        throw failure[0];
+                    }
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // The snapshot now supersedes the journal; a crash before the reset leaves a stale epoch that is ignored
+        epoch = nextEpoch;
+        if (journal != null) {
+            resetJournal();
+        }
+        HytalePortal.getPluginLogger().atInfo().log("Saved " + size() + " original blocks under portals");
+    }
+
+    /**
+     * Compact into a final snapshot and close the journal
+     */
+    public synchronized void close() throws IOException {
+        journaling = false;
+        try {
+            save();
+        } finally {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+            pending.clear();
+        }
+    }
+
+    private void journal(byte op, int worldHandle, long key, int value) {
+        if (!journaling) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // Length, patched below
+            out.writeInt(0); // CRC, patched below
+            out.writeByte(op);
+            out.writeUTF(WorldRegistry.get().nameOf(worldHandle));
+            out.writeLong(key);
+            out.writeInt(value);
+
+            byte[] frame = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(frame, 8, frame.length - 8);
+            ByteBuffer.wrap(frame).putInt(frame.length - 8).putInt((int) crc.getValue());
+            pending.offer(frame);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode original block record", e);
+        }
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        int worldHandle = WorldRegistry.get().handleOf(in.readUTF());
+        long key = in.readLong();
+        int value = in.readInt();
+        LongIntHashMap originals = worlds.computeIfAbsent(worldHandle, handle -> new LongIntHashMap());
+        synchronized (originals) {
+            if (op == OP_RECORD) {
+                originals.put(key, value);
+            } else if (op == OP_RESTORE) {
+                originals.remove(key);
+            } else {
+                throw new IOException("Unknown original block journal op " + op);
+            }
+        }
+    }
+
+    /**
+     * Read one journal frame's payload
+     * @return The payload, or null at end of file or on a torn/corrupt frame
+     */
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int expectedCrc = in.readInt();
+            if (length <= 0 || length > MAX_PAYLOAD) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, length);
+            return (int) crc.getValue() == expectedCrc ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read the snapshot into the maps
+     * @return The snapshot's epoch
+     */
+    private long readSnapshot(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not an original block file: " + file);
+            }
+            long snapshotEpoch = in.readLong();
+            int worldCount = in.readInt();
+            for (int i = 0; i < worldCount; i++) {
+                int worldHandle = WorldRegistry.get().handleOf(in.readUTF());
+                LongIntHashMap originals = worlds.computeIfAbsent(worldHandle, handle -> new LongIntHashMap());
+                int count = in.readInt();
+                synchronized (originals) {
+                    for (int j = 0; j < count; j++) {
+                        long key = in.readLong();
+                        originals.put(key, in.readInt());
+                    }
+                }
+            }
+            return snapshotEpoch;
+        }
+    }
+
+    private void resetJournal() throws IOException {
+        journal.truncate(0);
+        journal.position(0);
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC).putLong(epoch).flip();
+        while (header.hasRemaining()) {
+            journal.write(header);
+        }
+        journal.force(false);
+        journalRecords = 0;
+    }
+}
@@ -0,0 +1,158 @@
+package dev.jsemolik.hytaleportal.portal;
+
+import com.hypixel.hytale.server.core.universe.PlayerRef;
+import com.hypixel.hytale.server.core.universe.world.World;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Decides which players of a world need a portal check on a given tick.
+ * Each player's next check is pushed out by how long they would need, at maximum speed,
+ * to reach the nearest portal, and is kept in a timing wheel so far-away players cost
+ * nothing until they could plausibly arrive.
+ *
+ * Confined to the world thread; one instance per world.
+ */
+public class PlayerCheckScheduler {
+
+    /**
+     * Upper bound on how fast a player can move (blocks per tick), including falling and knockback
+     */
+    private static final double MAX_BLOCKS_PER_TICK = 3.0;
+
+    /**
+     * Players this close to a portal are checked every tick
+     */
+    private static final double NEAR_DISTANCE = 4.0;
+
+    /**
+     * Wheel size in ticks (power of two); also the longest a player can go unchecked
+     */
+    private static final int WHEEL_SIZE = 128;
+
+    /**
+     * How often the world's player list is rescanned for new arrivals and departures
+     */
+    private static final int RESCAN_INTERVAL_TICKS = 5;
+
+    @SuppressWarnings("unchecked")
+    private final List<Entry>[] wheel = new List[WHEEL_SIZE];
+    private List<Entry> spareBucket = new ArrayList<>();
+    private final Map<UUID, Entry> tracked = new HashMap<>();
+    private long tick;
+    private int lastIndexVersion = -1;
+
+    public PlayerCheckScheduler() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Advance one tick and collect the players that are due for a check
+     */
+    public void collectDue(World world, PortalSpatialIndex index, List<PlayerRef> out) {
+        tick++;
+
+        // Pick up players that joined or left the world
+        if (tick % RESCAN_INTERVAL_TICKS == 0 || tracked.isEmpty()) {
+            rescan(world);
+        }
+
+        // Portals changed: distances are stale, check everyone now
+        int indexVersion = index.getVersion();
+        if (indexVersion != lastIndexVersion) {
+            lastIndexVersion = indexVersion;
+            for (Entry entry : tracked.values()) {
+                schedule(entry, 0);
+            }
+        }
+
+        // Swap the bucket out so entries can be rescheduled while it is walked
+        int slot = (int) (tick & (WHEEL_SIZE - 1));
+        List<Entry> due = wheel[slot];
+        wheel[slot] = spareBucket;
+        for (Entry entry : due) {
+            // Skip departed players and stale copies left behind by a reschedule
+            if (entry.dueTick == tick && tracked.get(entry.playerRef.getUuid()) == entry) {
+                out.add(entry.playerRef);
+                // Default to the next tick until scheduleNext() pushes it out
+                schedule(entry, 1);
+            }
+        }
+        due.clear();
+        spareBucket = due;
+    }
+
+    /**
+     * Schedule a player's next check from their current distance to the nearest portal
+     */
+    public void scheduleNext(PlayerRef playerRef, double x, double z, PortalSpatialIndex index) {
+        Entry entry = tracked.get(playerRef.getUuid());
+        if (entry == null) {
+            return;
+        }
+
+        double maxDistance = (WHEEL_SIZE - 1) * MAX_BLOCKS_PER_TICK + NEAR_DISTANCE;
+        double distance = index.nearestDistanceLowerBound(x, z, maxDistance);
+        int delay = (int) ((distance - NEAR_DISTANCE) / MAX_BLOCKS_PER_TICK);
+        schedule(entry, Math.max(1, Math.min(WHEEL_SIZE - 1, delay)));
+    }
+
+    /**
+     * Check a player again on the next tick
+     */
+    public void scheduleSoon(PlayerRef playerRef) {
+        Entry entry = tracked.get(playerRef.getUuid());
+        if (entry != null) {
+            schedule(entry, 1);
+        }
+    }
+
+    /**
+     * Get the number of players tracked in this world
+     */
+    public int getTrackedCount() {
+        return tracked.size();
+    }
+
+    private void rescan(World world) {
+        for (PlayerRef playerRef : world.getPlayerRefs()) {
+            Entry entry = tracked.get(playerRef.getUuid());
+            if (entry == null || entry.playerRef != playerRef) {
+                // New in this world: check right away
+                entry = new Entry(playerRef);
+                tracked.put(playerRef.getUuid(), entry);
+                schedule(entry, 0);
+            }
+            entry.seenTick = tick;
+        }
+
+        Iterator<Entry> iterator = tracked.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().seenTick != tick) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void schedule(Entry entry, int delay) {
+        entry.dueTick = tick + delay;
+        wheel[(int) (entry.dueTick & (WHEEL_SIZE - 1))].add(entry);
+    }
+
+    private static class Entry {
+        final PlayerRef playerRef;
+        long dueTick;
+        long seenTick;
+
+        Entry(PlayerRef playerRef) {
+            this.playerRef = playerRef;
+        }
+    }
+}
@@ -3,20 +3,30 @@ package dev.jsemolik.hytaleportal.portal;
 import com.hypixel.hytale.math.vector.Vector3d;
 import com.hypixel.hytale.math.vector.Vector3f;
 import com.hypixel.hytale.math.vector.Vector3i;
+import dev.jsemolik.hytaleportal.util.WorldRegistry;
 
+import javax.annotation.Nullable;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a single portal (blue or orange) in the world.
  * Portals are 2 blocks wide by 3 blocks tall.
+ *
+ * A Portal is a lightweight view (slot + id) over the {@link PortalStore} columns; geometry is
+ * derived from the packed block position and facing on demand. Positions snap to the block grid
+ * and yaw to the nearest quarter turn, which is all portal placement ever produces.
+ *
+ * Once released, a view's slot may be reused by another portal. Release first copies the portal
+ * into the view (a {@link PortalGeometry}), and every read checks that the slot still holds this
+ * portal, falling back to that copy when it does not. A view held past its portal's removal (across
+ * a tick, or handed to another thread) therefore keeps reading its own data and never fails.
+ * Code that must not act on a removed portal checks {@link #isReleased()}, or takes one consistent
+ * copy with {@link #read()}.
  */
 public class Portal {
-    private final UUID ownerUUID;
-    private final PortalType type;
-    private final Vector3d position;      // Bottom-left corner position
-    private final Vector3f rotation;      // Portal orientation (normal vector)
-    private final String worldName;       // World the portal exists in
-    private final long creationTime;      // When the portal was created
+    // Source of portal ids; ids are unique for the lifetime of the server process
+    private static final AtomicLong NEXT_ID = new AtomicLong();
 
     /**
      * Portal dimensions (in blocks)
@@ -24,48 +34,183 @@ public class Portal {
     public static final int WIDTH = 1;
     public static final int HEIGHT = 2;
 
+    /**
+     * Half the width of the player hitbox; the trigger plane sits this far in front of the frame face
+     */
+    public static final double PLAYER_RADIUS = 0.3;
+
+    /**
+     * How far below the frame a player's feet may be and still enter (stepping in from a lower block)
+     */
+    private static final double STEP_TOLERANCE = 0.5;
+
+    // Outward normal per facing (yaw 0, 90, 180, 270)
+    static final double[] FACING_NORMAL_X = { 0, -1, 0, 1 };
+    static final double[] FACING_NORMAL_Z = { 1, 0, -1, 0 };
+
+    private final long id;                // Unique id of this portal instance
+    private final int slot;               // Slot in the PortalStore columns
+
+    // Copy taken on release, read once the slot holds another portal
+    private volatile PortalGeometry releasedCopy;
+
     public Portal(UUID ownerUUID, PortalType type, Vector3d position, Vector3f rotation, String worldName) {
-        this.ownerUUID = ownerUUID;
-        this.type = type;
-        this.position = position;
-        this.rotation = rotation;
-        this.worldName = worldName;
-        this.creationTime = System.currentTimeMillis();
+        this(ownerUUID, type, position, rotation, worldName, System.currentTimeMillis());
+    }
+
+    /**
+     * Recreate a portal with its original creation time (e.g. when restoring from disk)
+     */
+    public Portal(UUID ownerUUID, PortalType type, Vector3d position, Vector3f rotation, String worldName, long creationTime) {
+        this.id = NEXT_ID.incrementAndGet();
+        this.slot = PortalStore.get().allocate(
+            id, ownerUUID, type,
+            (int) Math.floor(position.x), (int) Math.floor(position.y), (int) Math.floor(position.z),
+            Math.floorMod(Math.round(rotation.y / 90f), 4),
+            WorldRegistry.get().handleOf(worldName), creationTime
+        );
+    }
+
+    /**
+     * Give the portal's storage back once it is no longer in use.
+     * The PortalManager does this for portals it drops; code that creates portals it never hands
+     * to the manager has to do it itself.
+     */
+    public void release() {
+        PortalStore store = PortalStore.get();
+        if (releasedCopy == null) {
+            // Before the slot can be reused; a read that finds it reused then sees this copy
+            PortalGeometry copy = store.read(slot, id);
+            if (copy != null) {
+                releasedCopy = copy;
+            }
+        }
+        store.release(slot, id);
+    }
+
+    /**
+     * Take a consistent copy of the portal in one checked read
+     * @return The copy, or null if the portal was released
+     */
+    @Nullable
+    public PortalGeometry read() {
+        if (releasedCopy != null) {
+            return null;
+        }
+        return PortalStore.get().read(slot, id);
+    }
+
+    /**
+     * Whether the portal was released (the view keeps returning the data it had)
+     */
+    public boolean isReleased() {
+        return releasedCopy != null || PortalStore.get().isReleased(slot, id);
+    }
+
+    /**
+     * Get the unique id of this portal (allocated in creation order, never reused while the server runs)
+     */
+    public long getId() {
+        return id;
     }
 
     public UUID getOwnerUUID() {
-        return ownerUUID;
+        PortalStore store = PortalStore.get();
+        UUID owner = store.owner(slot);
+        return store.isCurrent(slot, id) ? owner : releasedCopy.ownerUUID;
     }
 
     public PortalType getType() {
-        return type;
+        PortalStore store = PortalStore.get();
+        PortalType type = store.type(slot);
+        return store.isCurrent(slot, id) ? type : releasedCopy.type;
     }
 
+    /**
+     * Get the bottom-left corner position
+     */
     public Vector3d getPosition() {
-        return position;
+        return new Vector3d(getBlockX(), getBlockY(), getBlockZ());
     }
 
+    /**
+     * Get the portal orientation (yaw in degrees in y)
+     */
     public Vector3f getRotation() {
-        return rotation;
+        return new Vector3f(0, getFacing() * 90f, 0);
+    }
+
+    /**
+     * Get the direction the portal faces in quarter turns of yaw (0 = yaw 0, 1 = yaw 90, ...)
+     */
+    public int getFacing() {
+        PortalStore store = PortalStore.get();
+        int facing = store.facing(slot);
+        return store.isCurrent(slot, id) ? facing : releasedCopy.facing;
     }
 
     public String getWorldName() {
-        return worldName;
+        return WorldRegistry.get().nameOf(getWorldHandle());
+    }
+
+    /**
+     * Get the handle of the portal's world (see {@link WorldRegistry})
+     */
+    public int getWorldHandle() {
+        PortalStore store = PortalStore.get();
+        int worldHandle = store.worldHandle(slot);
+        return store.isCurrent(slot, id) ? worldHandle : releasedCopy.worldHandle;
     }
 
     public long getCreationTime() {
-        return creationTime;
+        PortalStore store = PortalStore.get();
+        long creationTime = store.creationTime(slot);
+        return store.isCurrent(slot, id) ? creationTime : releasedCopy.creationTime;
+    }
+
+    public int getBlockX() {
+        PortalStore store = PortalStore.get();
+        int blockX = store.blockX(slot);
+        return store.isCurrent(slot, id) ? blockX : releasedCopy.blockX;
+    }
+
+    public int getBlockY() {
+        PortalStore store = PortalStore.get();
+        int blockY = store.blockY(slot);
+        return store.isCurrent(slot, id) ? blockY : releasedCopy.blockY;
+    }
+
+    public int getBlockZ() {
+        PortalStore store = PortalStore.get();
+        int blockZ = store.blockZ(slot);
+        return store.isCurrent(slot, id) ? blockZ : releasedCopy.blockZ;
+    }
+
+    public double getCenterX() {
+        return getBlockX() + 0.5;
+    }
+
+    public double getCenterY() {
+        return getBlockY() + 1.0;
+    }
+
+    public double getCenterZ() {
+        return getBlockZ() + 0.5;
+    }
+
+    public double getNormalX() {
+        return FACING_NORMAL_X[getFacing()];
+    }
+
+    public double getNormalZ() {
+        return FACING_NORMAL_Z[getFacing()];
     }
 
     /**
      * Get the center position of the portal (for teleportation calculations)
      */
     public Vector3d getCenterPosition() {
-        return new Vector3d(
-            position.x + 0.5,
-            position.y + 1.0,
-            position.z + 0.5
-        );
+        return new Vector3d(getCenterX(), getCenterY(), getCenterZ());
     }
 
     /**
@@ -73,35 +218,149 @@ public class Portal {
      * This points outward from the surface the portal was placed on
      */
     public Vector3d getNormalVector() {
-        // Convert yaw rotation to a direction vector
-        // Yaw is stored in rotation.y
-        float yaw = rotation.y;
-        double radians = Math.toRadians(yaw);
-        
-        // Calculate normal vector pointing outward from portal surface
-        return new Vector3d(
-            -Math.sin(radians),
-            0,
-            Math.cos(radians)
-        );
+        return new Vector3d(getNormalX(), 0, getNormalZ());
     }
 
     /**
      * Check if a given position is within the portal's boundaries
      */
     public boolean containsPosition(Vector3d pos) {
-        // Simple bounding box check
-        // TODO: Improve to account for rotation
-        double minX = position.x;
-        double maxX = position.x + WIDTH;
-        double minY = position.y;
-        double maxY = position.y + HEIGHT;
-        double minZ = position.z;
-        double maxZ = position.z + WIDTH;
+        return containsPoint(pos.x, pos.y, pos.z);
+    }
+
+    /**
+     * Check if a point is within the portal's frame blocks (rotation aware)
+     */
+    public boolean containsPoint(double x, double y, double z) {
+        return isWithin(x, y, z, 0);
+    }
+
+    /**
+     * Check if a point is within the portal's frame blocks expanded by a margin on every side
+     */
+    public boolean isWithin(double x, double y, double z, double margin) {
+        PortalStore store = PortalStore.get();
+        int blockX = store.blockX(slot);
+        int blockY = store.blockY(slot);
+        int blockZ = store.blockZ(slot);
+        int facing = store.facing(slot);
+        if (!store.isCurrent(slot, id)) {
+            return releasedCopy.isWithin(x, y, z, margin);
+        }
+        return isWithin(blockX, blockY, blockZ, facing, x, y, z, margin);
+    }
+
+    static boolean isWithin(int blockX, int blockY, int blockZ, int facing,
+                            double x, double y, double z, double margin) {
+        boolean alongX = isAlongX(facing);
+        int maxX = blockX + (alongX ? WIDTH : 1);
+        int maxY = blockY + HEIGHT;
+        int maxZ = blockZ + (alongX ? 1 : WIDTH);
+        return x >= blockX - margin && x <= maxX + margin &&
+               y >= blockY - margin && y <= maxY + margin &&
+               z >= blockZ - margin && z <= maxZ + margin;
+    }
 
-        return pos.x >= minX && pos.x <= maxX &&
-               pos.y >= minY && pos.y <= maxY &&
-               pos.z >= minZ && pos.z <= maxZ;
+    /**
+     * Signed distance of a point to the trigger plane.
+     * Positive = in front of the portal (same direction as the normal)
+     */
+    public double distanceToTriggerPlane(double x, double z) {
+        PortalStore store = PortalStore.get();
+        int facing = store.facing(slot);
+        double centerX = store.blockX(slot) + 0.5;
+        double centerZ = store.blockZ(slot) + 0.5;
+        if (!store.isCurrent(slot, id)) {
+            return releasedCopy.distanceToTriggerPlane(x, z);
+        }
+        return distanceToTriggerPlane(x, z, centerX, centerZ, FACING_NORMAL_X[facing], FACING_NORMAL_Z[facing]);
+    }
+
+    static double distanceToTriggerPlane(double x, double z, double centerX, double centerZ, double normalX, double normalZ) {
+        // Trigger plane: the frame's front face, pushed out by the player's hitbox radius
+        return (x - centerX) * normalX + (z - centerZ) * normalZ - 0.5 - PLAYER_RADIUS;
+    }
+
+    /**
+     * Intersect a movement segment with the portal's trigger rectangle.
+     * Only crossings from the front side to the back side count.
+     * @return The fraction along the segment (0..1) where the crossing happens, or -1 if it does not cross
+     */
+    public double intersectSegment(double fromX, double fromY, double fromZ, double toX, double toY, double toZ) {
+        // Read the columns once
+        PortalStore store = PortalStore.get();
+        int facing = store.facing(slot);
+        int blockY = store.blockY(slot);
+        double centerX = store.blockX(slot) + 0.5;
+        double centerZ = store.blockZ(slot) + 0.5;
+        if (!store.isCurrent(slot, id)) {
+            return releasedCopy.intersectSegment(fromX, fromY, fromZ, toX, toY, toZ);
+        }
+        return intersectSegment(blockY, centerX, centerZ, FACING_NORMAL_X[facing], FACING_NORMAL_Z[facing],
+            fromX, fromY, fromZ, toX, toY, toZ);
+    }
+
+    static double intersectSegment(int blockY, double centerX, double centerZ, double normalX, double normalZ,
+                                   double fromX, double fromY, double fromZ, double toX, double toY, double toZ) {
+        double fromDist = distanceToTriggerPlane(fromX, fromZ, centerX, centerZ, normalX, normalZ);
+        double toDist = distanceToTriggerPlane(toX, toZ, centerX, centerZ, normalX, normalZ);
+
+        // Must go from the front side to on/behind the plane
+        if (fromDist <= 0 || toDist > 0) {
+            return -1;
+        }
+
+        double t = fromDist / (fromDist - toDist);
+        double hitX = fromX + (toX - fromX) * t;
+        double hitY = fromY + (toY - fromY) * t;
+        double hitZ = fromZ + (toZ - fromZ) * t;
+
+        // Lateral extent, measured along the plane (perpendicular to the normal)
+        double lateral = -(hitX - centerX) * normalZ + (hitZ - centerZ) * normalX;
+        if (Math.abs(lateral) > WIDTH / 2.0 + PLAYER_RADIUS) {
+            return -1;
+        }
+
+        // Vertical extent, measured at the player's feet
+        if (hitY < blockY - STEP_TOLERANCE || hitY > blockY + HEIGHT - STEP_TOLERANCE) {
+            return -1;
+        }
+
+        return t;
+    }
+
+    /**
+     * Get the number of blocks that make up the portal frame
+     */
+    public int getFrameCount() {
+        return WIDTH * HEIGHT;
+    }
+
+    public int getFrameX(int index) {
+        return getBlockX() + frameOffsetX(getFacing(), index);
+    }
+
+    public int getFrameY(int index) {
+        return getBlockY() + frameOffsetY(index);
+    }
+
+    public int getFrameZ(int index) {
+        return getBlockZ() + frameOffsetZ(getFacing(), index);
+    }
+
+    /**
+     * Offset of a frame block from the bottom-left corner, for a portal with the given facing
+     */
+    static int frameOffsetX(int facing, int index) {
+        return isAlongX(facing) ? index % WIDTH : 0;
+    }
+
+    static int frameOffsetY(int index) {
+        return index / WIDTH;
+    }
+
+    static int frameOffsetZ(int facing, int index) {
+        return isAlongX(facing) ? 0 : index % WIDTH;
     }
 
     /**
@@ -109,50 +368,28 @@ public class Portal {
      * Uses rotation to determine orientation
      */
     public Vector3i[] getFramePositions() {
-        Vector3i[] positions = new Vector3i[WIDTH * HEIGHT];
-        int index = 0;
-
-        // Determine portal orientation based on rotation
-        // rotation.y represents the yaw (horizontal direction the portal faces)
-        float yaw = rotation.y;
-        
-        // Normalize yaw to 0-360
-        while (yaw < 0) yaw += 360;
-        while (yaw >= 360) yaw -= 360;
-        
-        // Determine if portal is on X-axis wall or Z-axis wall
-        boolean isXAxis = (yaw >= 45 && yaw < 135) || (yaw >= 225 && yaw < 315);
-        
-        for (int y = 0; y < HEIGHT; y++) {
-            for (int x = 0; x < WIDTH; x++) {
-                if (isXAxis) {
-                    // Portal spans along X axis (north/south facing wall)
-                    positions[index++] = new Vector3i(
-                        (int) position.x + x,
-                        (int) position.y + y,
-                        (int) position.z
-                    );
-                } else {
-                    // Portal spans along Z axis (east/west facing wall)
-                    positions[index++] = new Vector3i(
-                        (int) position.x,
-                        (int) position.y + y,
-                        (int) position.z + x
-                    );
-                }
-            }
+        Vector3i[] positions = new Vector3i[getFrameCount()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = new Vector3i(getFrameX(i), getFrameY(i), getFrameZ(i));
         }
-
         return positions;
     }
 
+    /**
+     * Whether the frame spans along the X axis (otherwise along Z)
+     */
+    private static boolean isAlongX(int facing) {
+        return (facing & 1) == 1;
+    }
+
     @Override
     public String toString() {
         return "Portal{" +
-                "type=" + type +
-                ", position=" + position +
-                ", world=" + worldName +
-                ", owner=" + ownerUUID +
+                "id=" + id +
+                ", type=" + getType() +
+                ", position=" + getPosition() +
+                ", world=" + getWorldName() +
+                ", owner=" + getOwnerUUID() +
                 '}';
     }
 }
@@ -0,0 +1,235 @@
+package dev.jsemolik.hytaleportal.portal;
+
+import com.hypixel.hytale.server.core.asset.type.blocktype.config.BlockType;
+import com.hypixel.hytale.server.core.universe.world.World;
+import dev.jsemolik.hytaleportal.HytalePortal;
+import dev.jsemolik.hytaleportal.util.HandleTable;
+import dev.jsemolik.hytaleportal.util.LongObjectHashMap;
+import dev.jsemolik.hytaleportal.util.PluginScheduler;
+import dev.jsemolik.hytaleportal.util.TickBudget;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-world queue of portal block changes.
+ *
+ * Placing or removing a portal's blocks only queues a command. The {@link PluginScheduler} drains
+ * each world's queue on that world's thread once per tick, one batch per portal, in the order it was
+ * queued, until the tick's budget is spent; the rest waits for the next tick. A place that is removed
+ * again before the drain never touches the world. Commands for a world that is not loaded wait until it is.
+ *
+ * Placing records the blocks a frame replaces in the {@link OriginalBlockStore}; removing sets
+ * them back directly, unless another portal still covers the position.
+ */
+public class PortalBlockQueue {
+
+    /**
+     * Block type used for portal frames
+     */
+    static final String PORTAL_BLOCK = "Debug_Block";
+
+    private final OriginalBlockStore originalBlocks;
+    private final PluginScheduler scheduler;
+    private final HandleTable<WorldQueue> queues = new HandleTable<>();
+
+    public PortalBlockQueue(OriginalBlockStore originalBlocks, PluginScheduler scheduler) {
+        this.originalBlocks = originalBlocks;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Queue placing a portal's frame blocks
+     */
+    public void place(Portal portal) {
+        enqueue(portal, true);
+    }
+
+    /**
+     * Queue removing a portal's frame blocks
+     */
+    public void remove(Portal portal) {
+        enqueue(portal, false);
+    }
+
+    /**
+     * Whether block changes are waiting for a world
+     */
+    public boolean hasPending(int worldHandle) {
+        WorldQueue queue = queues.get(worldHandle);
+        return queue != null && queue.hasPending();
+    }
+
+    /**
+     * Apply queued block changes until the budget is spent (world thread)
+     */
+    public void drain(World world, int worldHandle, TickBudget budget) {
+        WorldQueue queue = queues.get(worldHandle);
+        if (queue != null) {
+            queue.drain(world, budget);
+        }
+    }
+
+    private void enqueue(Portal portal, boolean place) {
+        // Capture the frame now; the portal's storage is released once it is gone
+        int[] blocks = new int[portal.getFrameCount() * 3];
+        for (int i = 0; i < portal.getFrameCount(); i++) {
+            blocks[i * 3] = portal.getFrameX(i);
+            blocks[i * 3 + 1] = portal.getFrameY(i);
+            blocks[i * 3 + 2] = portal.getFrameZ(i);
+        }
+
+        WorldQueue queue = queues.computeIfAbsent(portal.getWorldHandle(), handle -> new WorldQueue(handle, originalBlocks));
+        queue.add(new BlockCommand(portal.getId(), portal.getType(), place, blocks));
+        scheduler.wake();
+    }
+
+    /**
+     * A batch of block changes for one portal
+     */
+    private static final class BlockCommand {
+        final long portalId;
+        final PortalType type;
+        final boolean place;
+        final int[] blocks;   // x, y, z per frame block
+
+        BlockCommand(long portalId, PortalType type, boolean place, int[] blocks) {
+            this.portalId = portalId;
+            this.type = type;
+            this.place = place;
+            this.blocks = blocks;
+        }
+    }
+
+    private static final class WorldQueue {
+        private final int worldHandle;
+        private final OriginalBlockStore originalBlocks;
+
+        // Scratch list for coverage checks (world thread only)
+        private final List<Portal> nearby = new ArrayList<>();
+
+        // Pending command by portal id, and commands in queue order (guarded by this).
+        // A queued command no longer in the map was cancelled or replaced and is skipped.
+        private final LongObjectHashMap<BlockCommand> pending = new LongObjectHashMap<>();
+        private final ArrayDeque<BlockCommand> order = new ArrayDeque<>();
+
+        WorldQueue(int worldHandle, OriginalBlockStore originalBlocks) {
+            this.worldHandle = worldHandle;
+            this.originalBlocks = originalBlocks;
+        }
+
+        synchronized void add(BlockCommand command) {
+            BlockCommand queued = pending.get(command.portalId);
+            if (queued != null && queued.place && !command.place) {
+                // Placed and removed before the drain: nothing ever reaches the world
+                pending.remove(command.portalId);
+                if (pending.isEmpty()) {
+                    order.clear(); // Only cancelled commands left
+                }
+                return;
+            }
+            pending.put(command.portalId, command);
+            order.add(command);
+        }
+
+        synchronized boolean hasPending() {
+            return !pending.isEmpty();
+        }
+
+        /**
+         * Apply queued commands in order until the budget is spent, at least one per tick (world thread)
+         */
+        void drain(World world, TickBudget budget) {
+            int placed = 0;
+            int removed = 0;
+            do {
+                BlockCommand command;
+                synchronized (this) {
+                    command = poll();
+                    if (command == null) {
+                        break;
+                    }
+                }
+
+                try {
+                    apply(world, command);
+                    if (command.place) {
+                        placed++;
+                    } else {
+                        removed++;
+                    }
+                } catch (Exception e) {
+                    HytalePortal.getPluginLogger().atInfo().log(
+                        "[ERROR] Error updating blocks of %s portal %d: %s",
+                        command.type, command.portalId, e.getMessage()
+                    );
+                }
+            } while (budget.hasTime());
+
+            if (placed + removed > 0) {
+                HytalePortal.getPluginLogger().atInfo().log(
+                    "Portal blocks in world %s: placed %d, removed %d portals",
+                    world.getName(), placed, removed
+                );
+            }
+        }
+
+        /**
+         * Take the oldest live command, dropping cancelled ones on the way
+         */
+        @Nullable
+        private BlockCommand poll() {
+            BlockCommand command;
+            while ((command = order.poll()) != null) {
+                if (pending.get(command.portalId) == command) {
+                    pending.remove(command.portalId);
+                    return command;
+                }
+            }
+            return null;
+        }
+
+        private void apply(World world, BlockCommand command) {
+            int[] blocks = command.blocks;
+            int portalBlockId = BlockType.getAssetMap().getIndex(PORTAL_BLOCK);
+            PortalSpatialIndex index = PortalManager.getInstance().getSpatialIndex(worldHandle);
+            for (int i = 0; i < blocks.length; i += 3) {
+                int x = blocks[i];
+                int y = blocks[i + 1];
+                int z = blocks[i + 2];
+                if (command.place) {
+                    originalBlocks.record(world, worldHandle, x, y, z, portalBlockId);
+                    // World.setBlock() uses WORLD coordinates directly
+                    world.setBlock(x, y, z, PORTAL_BLOCK);
+                } else if (!isCovered(index, x, y, z)) {
+                    if (!originalBlocks.restore(world, worldHandle, x, y, z)) {
+                        // Nothing remembered (placed before originals were kept): clear it the old way
+                        world.breakBlock(x, y, z, 0);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Whether a live portal still has a frame block at a position
+         */
+        private boolean isCovered(PortalSpatialIndex index, int x, int y, int z) {
+            if (index == null) {
+                return false;
+            }
+            nearby.clear();
+            index.collectNear(x + 0.5, y + 0.5, z + 0.5, 0, nearby);
+            for (Portal portal : nearby) {
+                // A portal removed since the lookup covers nothing
+                if (portal.containsPoint(x + 0.5, y + 0.5, z + 0.5) && !portal.isReleased()) {
+                    nearby.clear();
+                    return true;
+                }
+            }
+            nearby.clear();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package dev.jsemolik.hytaleportal.portal;
+
+/**
+ * A detected front-to-back crossing of a portal's trigger rectangle.
+ */
+public class PortalCrossing {
+    public final Portal portal;
+    public final double fraction;   // Position along the sampled segment (0..1)
+    public final double entryX;
+    public final double entryY;
+    public final double entryZ;
+    public final long entryTime;    // Interpolated time of the crossing (epoch millis)
+
+    public PortalCrossing(Portal portal, double fraction, double entryX, double entryY, double entryZ, long entryTime) {
+        this.portal = portal;
+        this.fraction = fraction;
+        this.entryX = entryX;
+        this.entryY = entryY;
+        this.entryZ = entryZ;
+        this.entryTime = entryTime;
+    }
+
+    @Override
+    public String toString() {
+        return "PortalCrossing{" +
+                "portal=" + portal +
+                ", entry=(" + entryX + ", " + entryY + ", " + entryZ + ")" +
+                ", fraction=" + fraction +
+                '}';
+    }
+}
@@ -0,0 +1,127 @@
+package dev.jsemolik.hytaleportal.portal;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Detects portal entries by sweeping each player's movement between two samples
+ * against the portal trigger rectangles, so fast movement cannot skip over a portal
+ * and standing next to one never counts as an entry.
+ */
+public class PortalCrossingDetector {
+
+    /**
+     * Movement longer than this between two samples is treated as a teleport, not a crossing
+     */
+    private static final double MAX_SEGMENT_LENGTH = 16.0;
+
+    /**
+     * Broadphase padding around the segment: half the frame diagonal plus the trigger offset
+     */
+    private static final double QUERY_PADDING = Portal.HEIGHT / 2.0 + 0.5 + Portal.PLAYER_RADIUS;
+
+    // Last sampled position per player
+    private final Map<UUID, Sample> lastSamples = new ConcurrentHashMap<>();
+
+    // Reused broadphase result buffer
+    private final List<Portal> candidates = new ArrayList<>();
+
+    /**
+     * Record a new position sample for a player and test the movement since the last sample.
+     * @param index Spatial index of the player's current world
+     * @param filter Only portals accepted by this filter are tested
+     * @return The earliest crossing along the movement, or null if no portal was crossed
+     */
+    @Nullable
+    public PortalCrossing update(UUID playerUUID, double x, double y, double z, long now,
+                                 PortalSpatialIndex index, Predicate<Portal> filter) {
+        Sample sample = lastSamples.get(playerUUID);
+        if (sample == null) {
+            lastSamples.put(playerUUID, new Sample(x, y, z, now));
+            return null;
+        }
+
+        double fromX = sample.x;
+        double fromY = sample.y;
+        double fromZ = sample.z;
+        long fromTime = sample.time;
+        sample.set(x, y, z, now);
+
+        double dx = x - fromX;
+        double dy = y - fromY;
+        double dz = z - fromZ;
+        double lengthSquared = dx * dx + dy * dy + dz * dz;
+        if (lengthSquared == 0 || lengthSquared > MAX_SEGMENT_LENGTH * MAX_SEGMENT_LENGTH) {
+            return null; // Not moving, or moved by something other than walking
+        }
+
+        // Broadphase around the segment midpoint
+        candidates.clear();
+        index.collectNear(
+            fromX + dx * 0.5, fromY + dy * 0.5, fromZ + dz * 0.5,
+            Math.sqrt(lengthSquared) * 0.5 + QUERY_PADDING,
+            candidates
+        );
+
+        Portal hitPortal = null;
+        double hitFraction = Double.MAX_VALUE;
+        for (Portal portal : candidates) {
+            double t = portal.intersectSegment(fromX, fromY, fromZ, x, y, z);
+            if (t >= 0 && t < hitFraction && filter.test(portal)) {
+                hitPortal = portal;
+                hitFraction = t;
+            }
+        }
+        candidates.clear();
+
+        if (hitPortal == null) {
+            return null;
+        }
+
+        return new PortalCrossing(
+            hitPortal,
+            hitFraction,
+            fromX + dx * hitFraction,
+            fromY + dy * hitFraction,
+            fromZ + dz * hitFraction,
+            fromTime + Math.round((now - fromTime) * hitFraction)
+        );
+    }
+
+    /**
+     * Forget a player's last sample (e.g. after they were teleported)
+     */
+    public void reset(UUID playerUUID) {
+        lastSamples.remove(playerUUID);
+    }
+
+    /**
+     * Forget all samples
+     */
+    public void clear() {
+        lastSamples.clear();
+    }
+
+    private static class Sample {
+        double x;
+        double y;
+        double z;
+        long time;
+
+        Sample(double x, double y, double z, long time) {
+            set(x, y, z, time);
+        }
+
+        void set(double x, double y, double z, long time) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.time = time;
+        }
+    }
+}
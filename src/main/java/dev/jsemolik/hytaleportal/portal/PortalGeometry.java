@@ -0,0 +1,86 @@
+package dev.jsemolik.hytaleportal.portal;
+
+import java.util.UUID;
+
+/**
+ * Immutable copy of a portal's data, taken in one checked read (see {@link Portal#read()}).
+ *
+ * Center, normal and frame bounds are computed once here, so code that keeps a portal across a
+ * tick or hands it to another thread works from plain final fields instead of going back to the
+ * {@link PortalStore} for every value.
+ */
+public final class PortalGeometry {
+    public final long id;
+    public final UUID ownerUUID;
+    public final PortalType type;
+    public final int worldHandle;
+    public final int blockX;
+    public final int blockY;
+    public final int blockZ;
+    public final int facing;        // Quarter turns of yaw
+    public final long creationTime;
+
+    public final double centerX;
+    public final double centerY;
+    public final double centerZ;
+    public final double normalX;
+    public final double normalZ;
+
+    PortalGeometry(long id, UUID ownerUUID, PortalType type, int worldHandle,
+                   int blockX, int blockY, int blockZ, int facing, long creationTime) {
+        this.id = id;
+        this.ownerUUID = ownerUUID;
+        this.type = type;
+        this.worldHandle = worldHandle;
+        this.blockX = blockX;
+        this.blockY = blockY;
+        this.blockZ = blockZ;
+        this.facing = facing;
+        this.creationTime = creationTime;
+        this.centerX = blockX + 0.5;
+        this.centerY = blockY + 1.0;
+        this.centerZ = blockZ + 0.5;
+        this.normalX = Portal.FACING_NORMAL_X[facing];
+        this.normalZ = Portal.FACING_NORMAL_Z[facing];
+    }
+
+    /**
+     * Get the yaw the portal faces, in degrees
+     */
+    public float getYaw() {
+        return facing * 90f;
+    }
+
+    /**
+     * Check if a point is within the portal's frame blocks expanded by a margin on every side
+     */
+    public boolean isWithin(double x, double y, double z, double margin) {
+        return Portal.isWithin(blockX, blockY, blockZ, facing, x, y, z, margin);
+    }
+
+    /**
+     * Intersect a movement segment with the portal's trigger rectangle (see {@link Portal#intersectSegment})
+     */
+    public double intersectSegment(double fromX, double fromY, double fromZ, double toX, double toY, double toZ) {
+        return Portal.intersectSegment(blockY, centerX, centerZ, normalX, normalZ, fromX, fromY, fromZ, toX, toY, toZ);
+    }
+
+    /**
+     * Signed distance of a point to the trigger plane (positive = in front)
+     */
+    public double distanceToTriggerPlane(double x, double z) {
+        return Portal.distanceToTriggerPlane(x, z, centerX, centerZ, normalX, normalZ);
+    }
+
+    public int getFrameX(int index) {
+        return blockX + Portal.frameOffsetX(facing, index);
+    }
+
+    public int getFrameY(int index) {
+        return blockY + Portal.frameOffsetY(index);
+    }
+
+    public int getFrameZ(int index) {
+        return blockZ + Portal.frameOffsetZ(facing, index);
+    }
+}
@@ -0,0 +1,192 @@
+package dev.jsemolik.hytaleportal.portal;
+
+import javax.annotation.Nullable;
+import java.util.UUID;
+
+/**
+ * Per-player arming state for portal exits.
+ * After a teleport the exit portal is disarmed for that player only; it re-arms once the
+ * player has arrived and then actually left the portal's volume. Every other portal stays
+ * usable, so quick chained teleports work.
+ *
+ * Entries live in an open-addressing table keyed by the two halves of the player UUID,
+ * and are removed on re-arm or disconnect, so the table only holds recently teleported players.
+ */
+public class PortalHysteresis {
+
+    /**
+     * How far outside the exit frame a player has to move before it re-arms
+     */
+    private static final double REARM_MARGIN = 1.5;
+
+    /**
+     * Give up waiting for a player to show up at the exit after this long (e.g. the teleport failed)
+     */
+    private static final long ARRIVAL_TIMEOUT_MS = 2000;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keyMost = new long[INITIAL_CAPACITY];
+    private long[] keyLeast = new long[INITIAL_CAPACITY];
+    private Portal[] exitPortals = new Portal[INITIAL_CAPACITY];   // null = empty slot
+    private long[] arrivalDeadlines = new long[INITIAL_CAPACITY];  // 0 = player has arrived
+    private volatile int size;
+
+    /**
+     * Disarm the exit portal for a player who is being teleported to it
+     */
+    public synchronized void disarm(UUID playerUUID, Portal exitPortal, long now) {
+        if ((size + 1) * 4 > exitPortals.length * 3) {
+            resize(exitPortals.length * 2);
+        }
+
+        int slot = findSlot(playerUUID.getMostSignificantBits(), playerUUID.getLeastSignificantBits());
+        if (exitPortals[slot] == null) {
+            keyMost[slot] = playerUUID.getMostSignificantBits();
+            keyLeast[slot] = playerUUID.getLeastSignificantBits();
+            size++;
+        }
+        exitPortals[slot] = exitPortal;
+        arrivalDeadlines[slot] = now + ARRIVAL_TIMEOUT_MS;
+    }
+
+    /**
+     * Update a player's state with their current position
+     * @return The portal that is still disarmed for this player, or null if every portal is armed
+     */
+    @Nullable
+    public Portal update(UUID playerUUID, double x, double y, double z, long now) {
+        if (size == 0) {
+            return null; // Fast path: nobody teleported recently
+        }
+
+        synchronized (this) {
+            int slot = findSlot(playerUUID.getMostSignificantBits(), playerUUID.getLeastSignificantBits());
+            Portal exitPortal = exitPortals[slot];
+            if (exitPortal == null) {
+                return null;
+            }
+            if (exitPortal.isReleased()) {
+                // The exit portal was removed: nothing left to disarm
+                removeSlot(slot);
+                return null;
+            }
+
+            boolean inside = exitPortal.isWithin(x, y, z, REARM_MARGIN);
+            if (arrivalDeadlines[slot] != 0) {
+                // Still waiting for the teleport to land
+                if (inside) {
+                    arrivalDeadlines[slot] = 0;
+                } else if (now > arrivalDeadlines[slot]) {
+                    removeSlot(slot);
+                    return null;
+                }
+                return exitPortal;
+            }
+
+            if (inside) {
+                return exitPortal;
+            }
+
+            // Left the exit volume: re-arm
+            removeSlot(slot);
+            return null;
+        }
+    }
+
+    /**
+     * Forget a player (e.g. on disconnect)
+     */
+    public synchronized void forget(UUID playerUUID) {
+        if (size == 0) {
+            return;
+        }
+        int slot = findSlot(playerUUID.getMostSignificantBits(), playerUUID.getLeastSignificantBits());
+        if (exitPortals[slot] != null) {
+            removeSlot(slot);
+        }
+    }
+
+    /**
+     * Forget all players
+     */
+    public synchronized void clear() {
+        keyMost = new long[INITIAL_CAPACITY];
+        keyLeast = new long[INITIAL_CAPACITY];
+        exitPortals = new Portal[INITIAL_CAPACITY];
+        arrivalDeadlines = new long[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Get the number of players with a disarmed exit portal
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the slot holding the key, or the empty slot where it would go (linear probing)
+     */
+    private int findSlot(long most, long least) {
+        int mask = exitPortals.length - 1;
+        int slot = hash(most, least) & mask;
+        while (exitPortals[slot] != null && (keyMost[slot] != most || keyLeast[slot] != least)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Remove a slot and shift following entries back so probe chains stay intact
+     */
+    private void removeSlot(int slot) {
+        int mask = exitPortals.length - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (exitPortals[next] != null) {
+            int home = hash(keyMost[next], keyLeast[next]) & mask;
+            // Move the entry into the hole if its home slot is not between the hole and its position
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keyMost[hole] = keyMost[next];
+                keyLeast[hole] = keyLeast[next];
+                exitPortals[hole] = exitPortals[next];
+                arrivalDeadlines[hole] = arrivalDeadlines[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        exitPortals[hole] = null;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldMost = keyMost;
+        long[] oldLeast = keyLeast;
+        Portal[] oldPortals = exitPortals;
+        long[] oldDeadlines = arrivalDeadlines;
+
+        keyMost = new long[capacity];
+        keyLeast = new long[capacity];
+        exitPortals = new Portal[capacity];
+        arrivalDeadlines = new long[capacity];
+
+        for (int i = 0; i < oldPortals.length; i++) {
+            if (oldPortals[i] != null) {
+                int slot = findSlot(oldMost[i], oldLeast[i]);
+                keyMost[slot] = oldMost[i];
+                keyLeast[slot] = oldLeast[i];
+                exitPortals[slot] = oldPortals[i];
+                arrivalDeadlines[slot] = oldDeadlines[i];
+            }
+        }
+    }
+
+    private static int hash(long most, long least) {
+        long h = most ^ least;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
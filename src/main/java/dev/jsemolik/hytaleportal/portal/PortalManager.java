@@ -1,22 +1,45 @@
 package dev.jsemolik.hytaleportal.portal;
 
+import dev.jsemolik.hytaleportal.persistence.PortalJournal;
+import dev.jsemolik.hytaleportal.util.HandleTable;
+import dev.jsemolik.hytaleportal.util.PersistentHashMap;
+
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Singleton manager for all portal pairs in the game.
  * Handles creation, removal, and lookup of portals for all players.
+ *
+ * Writers are serialized and publish an immutable {@link PortalSnapshot} after every change;
+ * readers only ever look at the current snapshot, so reads never copy or lock. The pairs are a
+ * {@link PersistentHashMap}, so publishing shares everything but the changed path with the
+ * previous snapshot, and the counts are kept up to date per change.
  */
 public class PortalManager {
     private static PortalManager instance;
-    
-    // Map of player UUID to their portal pair
-    private final Map<UUID, PortalPair> portalPairs;
+
+    // Map of player UUID to their portal pair (guarded by this; readers use the snapshot)
+    private PersistentHashMap<UUID, PortalPair> portalPairs = PersistentHashMap.empty();
+    private int totalPortalCount;
+    private int completePairCount;
+
+    // Spatial index of the portals in each world, by world handle
+    private final HandleTable<PortalSpatialIndex> spatialIndices;
+
+    // Latest published view of portalPairs
+    private volatile PortalSnapshot snapshot = PortalSnapshot.EMPTY;
+
+    // Where portal changes are persisted (null = not persisted)
+    @Nullable
+    private PortalJournal journal;
 
     private PortalManager() {
-        this.portalPairs = new ConcurrentHashMap<>();
+        this.spatialIndices = new HandleTable<>();
     }
 
     /**
@@ -36,11 +59,158 @@ public class PortalManager {
         instance = null;
     }
 
+    /**
+     * Get the current snapshot of all portal pairs
+     */
+    public PortalSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Set the journal that portal changes are recorded to (null to stop recording)
+     */
+    public synchronized void setJournal(@Nullable PortalJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Load persisted portal pairs in one step.
+     * They are recorded to the journal only if one is attached (not yet the case during startup).
+     */
+    public void restore(Map<UUID, PortalPair> restored) {
+        synchronized (this) {
+            // Group by world so each spatial index is rebuilt once, not once per portal
+            Map<Integer, List<Portal>> byWorld = new HashMap<>();
+            for (PortalPair pair : restored.values()) {
+                PortalPair old = putPair(pair.getPlayerUUID(), pair);
+                if (old != null) {
+                    unindexPortal(old.getBluePortal());
+                    unindexPortal(old.getOrangePortal());
+                    for (Portal portal : new Portal[] { old.getBluePortal(), old.getOrangePortal() }) {
+                        if (portal != null && pair.getPortal(portal.getType()) != portal) {
+                            portal.release();
+                        }
+                    }
+                }
+                for (Portal portal : new Portal[] { pair.getBluePortal(), pair.getOrangePortal() }) {
+                    if (portal == null) {
+                        continue;
+                    }
+                    byWorld.computeIfAbsent(portal.getWorldHandle(), handle -> new ArrayList<>()).add(portal);
+                    if (journal != null) {
+                        journal.recordSet(pair.getPlayerUUID(), portal);
+                    }
+                }
+            }
+            byWorld.forEach((worldHandle, portals) ->
+                spatialIndices.computeIfAbsent(worldHandle, handle -> new PortalSpatialIndex()).addAll(portals));
+            publish();
+        }
+
+        // Make sure the blocks of loaded portals are in the world
+        dev.jsemolik.hytaleportal.HytalePortal plugin = dev.jsemolik.hytaleportal.HytalePortal.getInstance();
+        if (plugin != null && plugin.getPortalVisualizer() != null) {
+            for (PortalPair pair : restored.values()) {
+                plugin.getPortalVisualizer().placePortalBlocks(pair.getBluePortal());
+                plugin.getPortalVisualizer().placePortalBlocks(pair.getOrangePortal());
+            }
+        }
+
+        portalsChanged();
+    }
+
+    /**
+     * Drop a pair from memory while leaving its blocks in the world (it was saved elsewhere)
+     * @param expected The pair that was saved; nothing happens if the player's pair has changed since
+     * @return Whether the pair was evicted
+     */
+    public boolean evict(PortalPair expected) {
+        UUID playerUUID = expected.getPlayerUUID();
+        synchronized (this) {
+            if (portalPairs.get(playerUUID) != expected) {
+                return false;
+            }
+            removePair(playerUUID);
+            unindexPortal(expected.getBluePortal());
+            unindexPortal(expected.getOrangePortal());
+            publish();
+
+            if (journal != null) {
+                journal.recordRemoveAll(playerUUID);
+            }
+        }
+
+        releasePortals(expected);
+
+        portalsChanged();
+        return true;
+    }
+
+    /**
+     * Bring back a pair that was evicted to disk without undoing what its owner did since.
+     * Colours the owner has no resident portal of are taken from the stored pair; stored portals
+     * whose colour was placed again meanwhile have their frames removed, since eviction left them
+     * in the world and nothing else knows about them any more.
+     */
+    public void restoreEvicted(PortalPair stored) {
+        UUID playerUUID = stored.getPlayerUUID();
+        List<Portal> restored = new ArrayList<>(2);
+        List<Portal> superseded = new ArrayList<>(2);
+        synchronized (this) {
+            PortalPair pair = portalPairs.get(playerUUID);
+            if (pair == null) {
+                pair = new PortalPair(playerUUID);
+            }
+            for (Portal portal : new Portal[] { stored.getBluePortal(), stored.getOrangePortal() }) {
+                if (portal == null) {
+                    continue;
+                }
+                if (pair.getPortal(portal.getType()) != null) {
+                    superseded.add(portal);
+                    continue;
+                }
+                pair = pair.withPortal(portal);
+                indexPortal(portal);
+                restored.add(portal);
+                if (journal != null) {
+                    journal.recordSet(playerUUID, portal);
+                }
+            }
+            if (!restored.isEmpty()) {
+                putPair(playerUUID, pair);
+                publish();
+            }
+        }
+
+        dev.jsemolik.hytaleportal.HytalePortal plugin = dev.jsemolik.hytaleportal.HytalePortal.getInstance();
+        if (plugin != null && plugin.getPortalVisualizer() != null) {
+            for (Portal portal : restored) {
+                plugin.getPortalVisualizer().placePortalBlocks(portal);
+            }
+            for (Portal portal : superseded) {
+                plugin.getPortalVisualizer().removePortalBlocks(portal);
+            }
+        }
+        for (Portal portal : superseded) {
+            portal.release();
+        }
+
+        if (!restored.isEmpty()) {
+            portalsChanged();
+        }
+    }
+
     /**
      * Get or create a portal pair for a player
      */
-    public PortalPair getOrCreatePortalPair(UUID playerUUID) {
-        return portalPairs.computeIfAbsent(playerUUID, PortalPair::new);
+    public synchronized PortalPair getOrCreatePortalPair(UUID playerUUID) {
+        PortalPair pair = portalPairs.get(playerUUID);
+        if (pair == null) {
+            pair = new PortalPair(playerUUID);
+            putPair(playerUUID, pair);
+            publish();
+        }
+        return pair;
     }
 
     /**
@@ -48,7 +218,7 @@ public class PortalManager {
      */
     @Nullable
     public PortalPair getPortalPair(UUID playerUUID) {
-        return portalPairs.get(playerUUID);
+        return snapshot.getPortalPair(playerUUID);
     }
 
     /**
@@ -60,24 +230,48 @@ public class PortalManager {
             portal.getType(), playerUUID
         );
 
-        PortalPair pair = getOrCreatePortalPair(playerUUID);
-        Portal oldPortal = pair.setPortal(portal);
+        Portal oldPortal;
+        synchronized (this) {
+            PortalPair pair = portalPairs.get(playerUUID);
+            if (pair == null) {
+                pair = new PortalPair(playerUUID);
+            }
+            oldPortal = pair.getPortal(portal.getType());
+            putPair(playerUUID, pair.withPortal(portal));
+
+            // Keep the spatial index in sync
+            if (oldPortal != null) {
+                unindexPortal(oldPortal);
+            }
+            indexPortal(portal);
+            publish();
+
+            if (journal != null) {
+                journal.recordSet(playerUUID, portal);
+            }
+        }
 
-        // Remove blocks from the old portal if it existed
+        // Remove blocks from the old portal if it existed, then place the new one's
+        dev.jsemolik.hytaleportal.HytalePortal plugin = dev.jsemolik.hytaleportal.HytalePortal.getInstance();
         if (oldPortal != null) {
             dev.jsemolik.hytaleportal.HytalePortal.getPluginLogger().atInfo().log(
                 "PortalManager.setPortal: Removing old {} portal",
                 oldPortal.getType()
             );
-            dev.jsemolik.hytaleportal.HytalePortal plugin = dev.jsemolik.hytaleportal.HytalePortal.getInstance();
             if (plugin != null && plugin.getPortalVisualizer() != null) {
                 plugin.getPortalVisualizer().removePortalBlocks(oldPortal);
             }
+            oldPortal.release();
+        }
+        if (plugin != null && plugin.getPortalVisualizer() != null) {
+            plugin.getPortalVisualizer().placePortalBlocks(portal);
         }
 
+        portalsChanged();
+
         dev.jsemolik.hytaleportal.HytalePortal.getPluginLogger().atInfo().log(
             "PortalManager.setPortal: Portal stored successfully. Total portal pairs: {}",
-            portalPairs.size()
+            snapshot.getPortalPairs().size()
         );
     }
 
@@ -85,64 +279,95 @@ public class PortalManager {
      * Remove a specific portal for a player
      */
     public void removePortal(UUID playerUUID, PortalType type) {
-        PortalPair pair = portalPairs.get(playerUUID);
-        if (pair != null) {
-            // Get the portal before removing it
-            Portal portalToRemove = (type == PortalType.BLUE) ? pair.getBluePortal() : pair.getOrangePortal();
+        Portal portalToRemove;
+        synchronized (this) {
+            PortalPair pair = portalPairs.get(playerUUID);
+            if (pair == null) {
+                return;
+            }
 
-            // Remove blocks
+            // Get the portal before removing it
+            portalToRemove = pair.getPortal(type);
             if (portalToRemove != null) {
-                dev.jsemolik.hytaleportal.HytalePortal plugin = dev.jsemolik.hytaleportal.HytalePortal.getInstance();
-                if (plugin != null && plugin.getPortalVisualizer() != null) {
-                    plugin.getPortalVisualizer().removePortalBlocks(portalToRemove);
-                }
+                unindexPortal(portalToRemove);
             }
 
-            pair.removePortal(type);
-
             // Clean up the pair if it has no portals left
-            if (!pair.hasAnyPortal()) {
-                portalPairs.remove(playerUUID);
+            PortalPair updated = pair.withoutPortal(type);
+            if (updated.hasAnyPortal()) {
+                putPair(playerUUID, updated);
+            } else {
+                removePair(playerUUID);
+            }
+            publish();
+
+            if (journal != null && portalToRemove != null) {
+                journal.recordRemove(playerUUID, type);
+            }
+        }
+
+        // Remove blocks
+        if (portalToRemove != null) {
+            dev.jsemolik.hytaleportal.HytalePortal plugin = dev.jsemolik.hytaleportal.HytalePortal.getInstance();
+            if (plugin != null && plugin.getPortalVisualizer() != null) {
+                plugin.getPortalVisualizer().removePortalBlocks(portalToRemove);
             }
+            portalToRemove.release();
         }
+
+        portalsChanged();
     }
 
     /**
-     * Remove all portals for a player (e.g., when they disconnect)
+     * Remove all portals for a player
      */
     public void removeAllPortals(UUID playerUUID) {
-        PortalPair pair = portalPairs.get(playerUUID);
-        if (pair != null) {
-            // Remove blocks for both portals
-            dev.jsemolik.hytaleportal.HytalePortal plugin = dev.jsemolik.hytaleportal.HytalePortal.getInstance();
-            if (plugin != null && plugin.getPortalVisualizer() != null) {
-                if (pair.getBluePortal() != null) {
-                    plugin.getPortalVisualizer().removePortalBlocks(pair.getBluePortal());
-                }
-                if (pair.getOrangePortal() != null) {
-                    plugin.getPortalVisualizer().removePortalBlocks(pair.getOrangePortal());
-                }
+        PortalPair pair;
+        synchronized (this) {
+            pair = removePair(playerUUID);
+            if (pair == null) {
+                return;
+            }
+            unindexPortal(pair.getBluePortal());
+            unindexPortal(pair.getOrangePortal());
+            publish();
+
+            if (journal != null) {
+                journal.recordRemoveAll(playerUUID);
             }
         }
-        portalPairs.remove(playerUUID);
+
+        // Remove blocks for both portals
+        dev.jsemolik.hytaleportal.HytalePortal plugin = dev.jsemolik.hytaleportal.HytalePortal.getInstance();
+        if (plugin != null && plugin.getPortalVisualizer() != null) {
+            if (pair.getBluePortal() != null) {
+                plugin.getPortalVisualizer().removePortalBlocks(pair.getBluePortal());
+            }
+            if (pair.getOrangePortal() != null) {
+                plugin.getPortalVisualizer().removePortalBlocks(pair.getOrangePortal());
+            }
+        }
+        releasePortals(pair);
+
+        portalsChanged();
     }
 
     /**
-     * Get all active portal pairs
+     * Get all active portal pairs (an immutable view of the current snapshot, no copy is made)
      */
     public Map<UUID, PortalPair> getAllPortalPairs() {
-        return Map.copyOf(portalPairs);
+        return snapshot.getPortalPairs();
     }
 
     /**
      * Check if a player has a specific portal type
      */
     public boolean hasPortal(UUID playerUUID, PortalType type) {
-        PortalPair pair = portalPairs.get(playerUUID);
+        PortalPair pair = getPortalPair(playerUUID);
         if (pair == null) {
             return false;
         }
-        
+
         if (type == PortalType.BLUE) {
             return pair.getBluePortal() != null;
         } else {
@@ -154,7 +379,7 @@ public class PortalManager {
      * Check if a player has both portals active
      */
     public boolean hasBothPortals(UUID playerUUID) {
-        PortalPair pair = portalPairs.get(playerUUID);
+        PortalPair pair = getPortalPair(playerUUID);
         return pair != null && pair.hasBothPortals();
     }
 
@@ -162,29 +387,42 @@ public class PortalManager {
      * Get the total number of players with active portals
      */
     public int getActivePlayerCount() {
-        return portalPairs.size();
+        return snapshot.getPortalPairs().size();
     }
 
     /**
      * Get the total number of active portals across all players
      */
     public int getTotalPortalCount() {
-        int count = 0;
-        for (PortalPair pair : portalPairs.values()) {
-            if (pair.getBluePortal() != null) count++;
-            if (pair.getOrangePortal() != null) count++;
-        }
-        return count;
+        return snapshot.getTotalPortalCount();
+    }
+
+    /**
+     * Get the number of players with both portals active (pairs that can teleport)
+     */
+    public int getCompletePairCount() {
+        return snapshot.getCompletePairCount();
     }
 
     /**
-     * Clear all portals (useful for plugin shutdown or reload)
+     * Clear all portals (useful for plugin shutdown or reload).
+     * This is not recorded to the journal, so persisted portals come back on the next load.
      */
     public void clearAll() {
-        // Remove blocks for all portals before clearing
+        Map<UUID, PortalPair> removed;
+        synchronized (this) {
+            removed = snapshot.getPortalPairs();
+            portalPairs = PersistentHashMap.empty();
+            totalPortalCount = 0;
+            completePairCount = 0;
+            spatialIndices.clear();
+            publish();
+        }
+
+        // Remove blocks for all portals
         dev.jsemolik.hytaleportal.HytalePortal plugin = dev.jsemolik.hytaleportal.HytalePortal.getInstance();
         if (plugin != null && plugin.getPortalVisualizer() != null) {
-            for (PortalPair pair : portalPairs.values()) {
+            for (PortalPair pair : removed.values()) {
                 if (pair.getBluePortal() != null) {
                     plugin.getPortalVisualizer().removePortalBlocks(pair.getBluePortal());
                 }
@@ -193,6 +431,103 @@ public class PortalManager {
                 }
             }
         }
-        portalPairs.clear();
+        for (PortalPair pair : removed.values()) {
+            releasePortals(pair);
+        }
+
+        portalsChanged();
+    }
+
+    /**
+     * Get the spatial index for a world handle (returns null if no portals were ever placed there)
+     */
+    @Nullable
+    public PortalSpatialIndex getSpatialIndex(int worldHandle) {
+        return spatialIndices.get(worldHandle);
+    }
+
+    /**
+     * Get one past the highest world handle that may have a spatial index (for iterating by handle)
+     */
+    public int getSpatialIndexLimit() {
+        return spatialIndices.length();
+    }
+
+    /**
+     * Publish a new snapshot of portalPairs (caller must hold the lock)
+     */
+    private void publish() {
+        snapshot = new PortalSnapshot(snapshot.getVersion() + 1, portalPairs, totalPortalCount, completePairCount);
+    }
+
+    /**
+     * Set a player's pair and update the counts (caller must hold the lock)
+     * @return The previous pair, or null
+     */
+    @Nullable
+    private PortalPair putPair(UUID playerUUID, PortalPair pair) {
+        PortalPair old = portalPairs.get(playerUUID);
+        portalPairs = portalPairs.plus(playerUUID, pair);
+        count(old, -1);
+        count(pair, 1);
+        return old;
+    }
+
+    /**
+     * Drop a player's pair and update the counts (caller must hold the lock)
+     * @return The removed pair, or null
+     */
+    @Nullable
+    private PortalPair removePair(UUID playerUUID) {
+        PortalPair old = portalPairs.get(playerUUID);
+        portalPairs = portalPairs.minus(playerUUID);
+        count(old, -1);
+        return old;
+    }
+
+    private void count(@Nullable PortalPair pair, int sign) {
+        if (pair == null) {
+            return;
+        }
+        totalPortalCount += sign * ((pair.getBluePortal() != null ? 1 : 0) + (pair.getOrangePortal() != null ? 1 : 0));
+        if (pair.hasBothPortals()) {
+            completePairCount += sign;
+        }
+    }
+
+    /**
+     * Let the plugin wake up or idle its tasks
+     */
+    private void portalsChanged() {
+        dev.jsemolik.hytaleportal.HytalePortal plugin = dev.jsemolik.hytaleportal.HytalePortal.getInstance();
+        if (plugin != null) {
+            plugin.onPortalsChanged();
+        }
+    }
+
+    /**
+     * Give the storage of a pair's portals back to the PortalStore
+     */
+    private static void releasePortals(PortalPair pair) {
+        if (pair.getBluePortal() != null) {
+            pair.getBluePortal().release();
+        }
+        if (pair.getOrangePortal() != null) {
+            pair.getOrangePortal().release();
+        }
+    }
+
+    private void indexPortal(Portal portal) {
+        spatialIndices.computeIfAbsent(portal.getWorldHandle(), handle -> new PortalSpatialIndex()).add(portal);
+    }
+
+    private void unindexPortal(@Nullable Portal portal) {
+        if (portal == null) {
+            return;
+        }
+        PortalSpatialIndex index = spatialIndices.get(portal.getWorldHandle());
+        if (index != null) {
+            index.remove(portal);
+        }
     }
 }
@@ -6,16 +6,33 @@ import java.util.UUID;
 /**
  * Represents a player's pair of portals (blue and orange).
  * Each player can have at most one blue portal and one orange portal active at a time.
+ *
+ * Pairs are immutable: changing a portal produces a new pair, so a pair read from a
+ * published snapshot can be used from any thread. A complete pair carries the transforms
+ * between its two portals, computed once when the pair is created.
  */
-public class PortalPair {
+public final class PortalPair {
     private final UUID playerUUID;
-    private Portal bluePortal;
-    private Portal orangePortal;
+    private final Portal bluePortal;
+    private final Portal orangePortal;
+    private final PortalTransform blueToOrange;
+    private final PortalTransform orangeToBlue;
 
     public PortalPair(UUID playerUUID) {
+        this(playerUUID, null, null);
+    }
+
+    private PortalPair(UUID playerUUID, @Nullable Portal bluePortal, @Nullable Portal orangePortal) {
         this.playerUUID = playerUUID;
-        this.bluePortal = null;
-        this.orangePortal = null;
+        this.bluePortal = bluePortal;
+        this.orangePortal = orangePortal;
+        if (bluePortal != null && orangePortal != null) {
+            this.blueToOrange = new PortalTransform(bluePortal, orangePortal);
+            this.orangeToBlue = new PortalTransform(orangePortal, bluePortal);
+        } else {
+            this.blueToOrange = null;
+            this.orangeToBlue = null;
+        }
     }
 
     public UUID getPlayerUUID() {
@@ -33,20 +50,33 @@ public class PortalPair {
     }
 
     /**
-     * Set a portal for this player. Replaces any existing portal of the same type.
-     * @return The old portal that was replaced, or null if there was no previous portal
+     * Get the portal of the given type
      */
     @Nullable
-    public Portal setPortal(Portal portal) {
-        Portal oldPortal = null;
+    public Portal getPortal(PortalType type) {
+        return type == PortalType.BLUE ? bluePortal : orangePortal;
+    }
+
+    /**
+     * Get a copy of this pair with the portal set. Replaces any existing portal of the same type.
+     */
+    public PortalPair withPortal(Portal portal) {
         if (portal.getType() == PortalType.BLUE) {
-            oldPortal = this.bluePortal;
-            this.bluePortal = portal;
+            return new PortalPair(playerUUID, portal, orangePortal);
+        } else {
+            return new PortalPair(playerUUID, bluePortal, portal);
+        }
+    }
+
+    /**
+     * Get a copy of this pair with a specific portal removed
+     */
+    public PortalPair withoutPortal(PortalType type) {
+        if (type == PortalType.BLUE) {
+            return new PortalPair(playerUUID, null, orangePortal);
         } else {
-            oldPortal = this.orangePortal;
-            this.orangePortal = portal;
+            return new PortalPair(playerUUID, bluePortal, null);
         }
-        return oldPortal;
     }
 
     /**
@@ -62,29 +92,19 @@ public class PortalPair {
     }
 
     /**
-     * Check if both portals are active
-     */
-    public boolean hasBothPortals() {
-        return bluePortal != null && orangePortal != null;
-    }
-
-    /**
-     * Remove a specific portal
+     * Get the transform for passing through the portal of the given type to the other one
+     * @return The transform, or null unless both portals are active
      */
-    public void removePortal(PortalType type) {
-        if (type == PortalType.BLUE) {
-            bluePortal = null;
-        } else {
-            orangePortal = null;
-        }
+    @Nullable
+    public PortalTransform getTransform(PortalType entryType) {
+        return entryType == PortalType.BLUE ? blueToOrange : orangeToBlue;
     }
 
     /**
-     * Remove all portals for this player
+     * Check if both portals are active
      */
-    public void clearAllPortals() {
-        bluePortal = null;
-        orangePortal = null;
+    public boolean hasBothPortals() {
+        return bluePortal != null && orangePortal != null;
     }
 
     /**
@@ -0,0 +1,194 @@
+package dev.jsemolik.hytaleportal.portal;
+
+import com.hypixel.hytale.math.vector.Vector3d;
+import com.hypixel.hytale.protocol.Color;
+import com.hypixel.hytale.protocol.Direction;
+import com.hypixel.hytale.protocol.Packet;
+import com.hypixel.hytale.protocol.Position;
+import com.hypixel.hytale.protocol.packets.world.SpawnParticleSystem;
+import com.hypixel.hytale.server.core.universe.PlayerRef;
+import com.hypixel.hytale.server.core.universe.world.World;
+import dev.jsemolik.hytaleportal.util.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders the particle effects of one world's portals: an outline of the frame and a swirl inside it.
+ *
+ * Particles only go to players within {@link #VIEW_DISTANCE} of a portal, and each viewer gets
+ * everything for a tick in a single write. Farther viewers get fewer particles (coarser outline,
+ * fewer swirl arms). The particles of a portal at a given density are built once per tick and
+ * shared by all viewers that see it at that density.
+ *
+ * Confined to the world thread; one instance per world.
+ */
+public class PortalParticleRenderer {
+
+    /**
+     * Players farther than this from a portal (in blocks) do not get its particles
+     */
+    static final double VIEW_DISTANCE = 32.0;
+
+    // Density levels, nearest first: upper distance, outline spacing (blocks) and swirl arms
+    private static final double[] LEVEL_DISTANCE = { 12.0, 24.0, VIEW_DISTANCE };
+    private static final double[] LEVEL_SPACING = { 0.25, 0.5, 1.0 };
+    private static final int[] LEVEL_SWIRL_ARMS = { 8, 4, 2 };
+
+    // How far in front of the frame face the particles float
+    private static final double FACE_OFFSET = 0.55;
+
+    // Swirl rotation per tick (radians)
+    private static final double SWIRL_SPEED = 0.35;
+
+    private static final String FRAME_PARTICLE = "Portal_Frame";
+    private static final String SWIRL_PARTICLE = "Portal_Swirl";
+    private static final Color BLUE = new Color((byte) 0x30, (byte) 0x90, (byte) 0xFF);
+    private static final Color ORANGE = new Color((byte) 0xFF, (byte) 0x90, (byte) 0x20);
+    private static final Direction NO_ROTATION = new Direction(0f, 0f, 0f);
+
+    // Particles built this tick, per density level, by portal id
+    @SuppressWarnings("unchecked")
+    private final LongObjectHashMap<Packet[]>[] built = new LongObjectHashMap[LEVEL_DISTANCE.length];
+    private final List<Portal> nearby = new ArrayList<>();
+    private final List<Packet> batch = new ArrayList<>();
+    private long tick;
+
+    public PortalParticleRenderer() {
+        for (int i = 0; i < built.length; i++) {
+            built[i] = new LongObjectHashMap<>();
+        }
+    }
+
+    /**
+     * Send one tick of particles to every player of the world near a portal
+     */
+    public void render(World world, PortalSpatialIndex index) {
+        tick++;
+        for (LongObjectHashMap<Packet[]> level : built) {
+            level.clear();
+        }
+
+        for (PlayerRef viewer : world.getPlayerRefs()) {
+            Vector3d position = viewer.getTransform().getPosition();
+            nearby.clear();
+            index.collectNear(position.x, position.y, position.z, VIEW_DISTANCE, nearby);
+            if (nearby.isEmpty()) {
+                continue;
+            }
+
+            batch.clear();
+            for (Portal portal : nearby) {
+                double dx = portal.getCenterX() - position.x;
+                double dy = portal.getCenterY() - position.y;
+                double dz = portal.getCenterZ() - position.z;
+                int level = densityLevel(dx * dx + dy * dy + dz * dz);
+                if (level < 0) {
+                    continue;
+                }
+
+                Packet[] particles = built[level].get(portal.getId());
+                if (particles == null) {
+                    particles = build(portal, level);
+                    built[level].put(portal.getId(), particles);
+                }
+                for (Packet particle : particles) {
+                    batch.add(particle);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                viewer.getPacketHandler().write(batch.toArray(new Packet[0]));
+            }
+        }
+        nearby.clear();
+        batch.clear();
+    }
+
+    /**
+     * Get the density level for a squared distance
+     * @return The level, or -1 if the portal is out of view
+     */
+    private static int densityLevel(double distanceSquared) {
+        for (int level = 0; level < LEVEL_DISTANCE.length; level++) {
+            if (distanceSquared <= LEVEL_DISTANCE[level] * LEVEL_DISTANCE[level]) {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Build a portal's outline and swirl particles at a density level
+     */
+    private Packet[] build(Portal portal, int level) {
+        Color color = portal.getType() == PortalType.BLUE ? BLUE : ORANGE;
+        List<Packet> particles = new ArrayList<>();
+
+        // Outline: walk the rectangle's perimeter
+        addOutline(particles, portal.getBlockX(), portal.getBlockY(), portal.getBlockZ(), portal.getFacing(),
+            LEVEL_SPACING[level], FRAME_PARTICLE, color);
+
+        // Swirl: arms turning around the center, on an ellipse that fits the frame
+        double normalX = portal.getNormalX();
+        double normalZ = portal.getNormalZ();
+        double sideX = -normalZ;
+        double sideZ = normalX;
+        double faceX = portal.getCenterX() + normalX * FACE_OFFSET;
+        double faceZ = portal.getCenterZ() + normalZ * FACE_OFFSET;
+        double baseY = portal.getBlockY();
+        double halfWidth = Portal.WIDTH / 2.0;
+        int arms = LEVEL_SWIRL_ARMS[level];
+        double phase = tick * SWIRL_SPEED;
+        for (int arm = 0; arm < arms; arm++) {
+            double angle = phase + arm * (2 * Math.PI / arms);
+            double lateral = Math.cos(angle) * halfWidth * 0.7;
+            double height = Portal.HEIGHT / 2.0 + Math.sin(angle) * Portal.HEIGHT / 2.0 * 0.7;
+            particles.add(particle(SWIRL_PARTICLE, faceX + sideX * lateral, baseY + height, faceZ + sideZ * lateral, color));
+        }
+
+        return particles.toArray(new Packet[0]);
+    }
+
+    /**
+     * Add particles along the outline of a frame with its bottom-left corner at a block and the given
+     * facing (also used to preview portals that don't exist yet)
+     * @param spacing Distance between particles along the outline (blocks)
+     */
+    public static void addOutline(List<Packet> particles, int blockX, int blockY, int blockZ, int facing,
+                                  double spacing, String particleSystem, Color color) {
+        double normalX = Portal.FACING_NORMAL_X[facing];
+        double normalZ = Portal.FACING_NORMAL_Z[facing];
+        // Along the face: perpendicular to the normal
+        double sideX = -normalZ;
+        double sideZ = normalX;
+
+        double faceX = blockX + 0.5 + normalX * FACE_OFFSET;
+        double faceZ = blockZ + 0.5 + normalZ * FACE_OFFSET;
+        double halfWidth = Portal.WIDTH / 2.0;
+
+        double perimeter = 2.0 * (Portal.WIDTH + Portal.HEIGHT);
+        for (double along = 0; along < perimeter; along += spacing) {
+            double lateral;
+            double height;
+            if (along < Portal.WIDTH) {
+                lateral = along - halfWidth;
+                height = 0;
+            } else if (along < Portal.WIDTH + Portal.HEIGHT) {
+                lateral = halfWidth;
+                height = along - Portal.WIDTH;
+            } else if (along < 2.0 * Portal.WIDTH + Portal.HEIGHT) {
+                lateral = halfWidth - (along - Portal.WIDTH - Portal.HEIGHT);
+                height = Portal.HEIGHT;
+            } else {
+                lateral = -halfWidth;
+                height = Portal.HEIGHT - (along - 2.0 * Portal.WIDTH - Portal.HEIGHT);
+            }
+            particles.add(particle(particleSystem, faceX + sideX * lateral, blockY + height, faceZ + sideZ * lateral, color));
+        }
+    }
+
+    private static Packet particle(String particleSystem, double x, double y, double z, Color color) {
+        return new SpawnParticleSystem(particleSystem, new Position(x, y, z), NO_ROTATION, 1.0f, color);
+    }
+}
@@ -0,0 +1,217 @@
+package dev.jsemolik.hytaleportal.portal;
+
+import com.hypixel.hytale.math.util.ChunkUtil;
+import com.hypixel.hytale.server.core.asset.type.blocktype.config.BlockType;
+import com.hypixel.hytale.server.core.universe.world.World;
+import com.hypixel.hytale.server.core.universe.world.chunk.WorldChunk;
+import dev.jsemolik.hytaleportal.util.VoxelRaycast;
+
+/**
+ * Checks that a portal fits where it is about to be placed: no frame block may be solid (air, grass
+ * and the like are replaced, and restored when the portal goes), and the block behind each one must
+ * be solid (see {@link VoxelRaycast#isSolid}) and not another portal's frame.
+ *
+ * If the requested spot does not fit, the nearest spot that does is searched for, sliding the portal
+ * along the wall and up or down by at most {@link #SEARCH_RADIUS} blocks. All blocks the search can
+ * touch are read in one pass up front (reusing the chunk from column to column), so the checks
+ * themselves never go back to the world.
+ *
+ * Not thread safe; must be used on the thread that owns the world. The result is kept in this
+ * instance, so read it before the next search.
+ */
+public class PortalPlacementValidator {
+
+    /**
+     * How far (in blocks, along the wall and vertically) to look for a valid spot
+     */
+    public static final int SEARCH_RADIUS = 2;
+
+    // Region value for blocks that could not be read (unloaded chunk, outside the world)
+    private static final int UNREADABLE = -1;
+
+    // Candidate offsets (along the wall, vertical), nearest first
+    private static final int[] CANDIDATE_U;
+    private static final int[] CANDIDATE_V;
+
+    static {
+        int side = SEARCH_RADIUS * 2 + 1;
+        int count = side * side;
+        CANDIDATE_U = new int[count];
+        CANDIDATE_V = new int[count];
+        int n = 0;
+        for (int distance = 0; distance <= 2 * SEARCH_RADIUS * SEARCH_RADIUS; distance++) {
+            for (int v = 0; v <= SEARCH_RADIUS; v++) {
+                for (int u = 0; u <= SEARCH_RADIUS; u++) {
+                    if (u * u + v * v != distance) {
+                        continue;
+                    }
+                    // Each sign combination once; upward before downward
+                    for (int sv = 1; sv >= (v == 0 ? 1 : -1); sv -= 2) {
+                        for (int su = 1; su >= (u == 0 ? 1 : -1); su -= 2) {
+                            CANDIDATE_U[n] = u * su;
+                            CANDIDATE_V[n] = v * sv;
+                            n++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Blocks of the search region, indexed by ((x * sizeY) + y) * sizeZ + z relative to the minimum
+    private int[] region = new int[0];
+    private int regionMinX;
+    private int regionMinY;
+    private int regionMinZ;
+    private int regionSizeY;
+    private int regionSizeZ;
+
+    // Chunk of the column being read (only valid during a search)
+    private WorldChunk chunk;
+    private long chunkIndex;
+    private boolean chunkCached;
+
+    // Last valid spot
+    private int resultX;
+    private int resultY;
+    private int resultZ;
+
+    /**
+     * Find the nearest spot where a portal with the given facing fits
+     * @param x Requested bottom-left corner
+     * @param facing Quarter turns of yaw (see {@link Portal#getFacing()})
+     * @return true if a spot was found within {@link #SEARCH_RADIUS} (read it with the getters)
+     */
+    public boolean findValid(World world, int x, int y, int z, int facing) {
+        int normalX = (int) Portal.FACING_NORMAL_X[facing];
+        int normalZ = (int) Portal.FACING_NORMAL_Z[facing];
+        // Along the wall: perpendicular to the normal
+        int tangentX = -normalZ;
+        int tangentZ = normalX;
+
+        readRegion(world, x, y, z, facing, normalX, normalZ, tangentX, tangentZ);
+
+        int portalBlockId = BlockType.getAssetMap().getIndex(PortalBlockQueue.PORTAL_BLOCK);
+        for (int candidate = 0; candidate < CANDIDATE_U.length; candidate++) {
+            int baseX = x + CANDIDATE_U[candidate] * tangentX;
+            int baseY = y + CANDIDATE_V[candidate];
+            int baseZ = z + CANDIDATE_U[candidate] * tangentZ;
+            if (fits(baseX, baseY, baseZ, facing, normalX, normalZ, portalBlockId)) {
+                resultX = baseX;
+                resultY = baseY;
+                resultZ = baseZ;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether every frame block is free and backed by a solid block
+     */
+    private boolean fits(int baseX, int baseY, int baseZ, int facing, int normalX, int normalZ, int portalBlockId) {
+        for (int i = 0; i < Portal.WIDTH * Portal.HEIGHT; i++) {
+            int frameX = baseX + Portal.frameOffsetX(facing, i);
+            int frameY = baseY + Portal.frameOffsetY(i);
+            int frameZ = baseZ + Portal.frameOffsetZ(facing, i);
+            int frame = regionBlock(frameX, frameY, frameZ);
+            if (frame == UNREADABLE || VoxelRaycast.isSolid(frame)) {
+                return false;
+            }
+            int backing = regionBlock(frameX - normalX, frameY, frameZ - normalZ);
+            if (backing == UNREADABLE || backing == portalBlockId || !VoxelRaycast.isSolid(backing)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read every frame and backing block of every candidate into the region
+     */
+    private void readRegion(World world, int x, int y, int z, int facing,
+                            int normalX, int normalZ, int tangentX, int tangentZ) {
+        // Bounds of all candidate frames and the blocks behind them
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (int u = -SEARCH_RADIUS; u <= SEARCH_RADIUS; u++) {
+            for (int v = -SEARCH_RADIUS; v <= SEARCH_RADIUS; v++) {
+                for (int i = 0; i < Portal.WIDTH * Portal.HEIGHT; i++) {
+                    int frameX = x + u * tangentX + Portal.frameOffsetX(facing, i);
+                    int frameY = y + v + Portal.frameOffsetY(i);
+                    int frameZ = z + u * tangentZ + Portal.frameOffsetZ(facing, i);
+                    minX = Math.min(minX, Math.min(frameX, frameX - normalX));
+                    maxX = Math.max(maxX, Math.max(frameX, frameX - normalX));
+                    minY = Math.min(minY, frameY);
+                    maxY = Math.max(maxY, frameY);
+                    minZ = Math.min(minZ, Math.min(frameZ, frameZ - normalZ));
+                    maxZ = Math.max(maxZ, Math.max(frameZ, frameZ - normalZ));
+                }
+            }
+        }
+
+        regionMinX = minX;
+        regionMinY = minY;
+        regionMinZ = minZ;
+        int sizeX = maxX - minX + 1;
+        regionSizeY = maxY - minY + 1;
+        regionSizeZ = maxZ - minZ + 1;
+        int size = sizeX * regionSizeY * regionSizeZ;
+        if (region.length < size) {
+            region = new int[size];
+        }
+
+        chunkCached = false;
+        try {
+            // Column by column, so the chunk is only looked up again when a column is in another one
+            for (int bx = minX; bx <= maxX; bx++) {
+                for (int bz = minZ; bz <= maxZ; bz++) {
+                    WorldChunk columnChunk = chunkAt(world, bx, bz);
+                    for (int by = minY; by <= maxY; by++) {
+                        int block = UNREADABLE;
+                        if (columnChunk != null && by >= VoxelRaycast.MIN_Y && by < VoxelRaycast.MAX_Y) {
+                            block = columnChunk.getBlock(bx, by, bz);
+                        }
+                        region[regionIndex(bx, by, bz)] = block;
+                    }
+                }
+            }
+        } finally {
+            // Don't keep the world's chunks alive between searches
+            chunk = null;
+        }
+    }
+
+    private WorldChunk chunkAt(World world, int x, int z) {
+        long index = ChunkUtil.indexChunkFromBlock(x, z);
+        if (!chunkCached || index != chunkIndex) {
+            chunkIndex = index;
+            chunk = world.getChunkIfLoaded(index);
+            chunkCached = true;
+        }
+        return chunk;
+    }
+
+    private int regionBlock(int x, int y, int z) {
+        return region[regionIndex(x, y, z)];
+    }
+
+    private int regionIndex(int x, int y, int z) {
+        return ((x - regionMinX) * regionSizeY + (y - regionMinY)) * regionSizeZ + (z - regionMinZ);
+    }
+
+    /**
+     * Get the bottom-left corner of the spot that was found
+     */
+    public int getResultX() {
+        return resultX;
+    }
+
+    public int getResultY() {
+        return resultY;
+    }
+
+    public int getResultZ() {
+        return resultZ;
+    }
+}
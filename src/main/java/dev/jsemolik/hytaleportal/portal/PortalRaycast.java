@@ -0,0 +1,133 @@
+package dev.jsemolik.hytaleportal.portal;
+
+import com.hypixel.hytale.server.core.universe.world.World;
+import dev.jsemolik.hytaleportal.util.VoxelRaycast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Raycast that passes through linked portals.
+ * When the ray enters the front face of a portal whose pair is complete, it is carried over to the
+ * partner portal with the pair's {@link PortalTransform} and traced on from there, until it hits
+ * something else.
+ *
+ * Hard bounds keep portals facing each other from looping: at most {@link #MAX_TRANSITS} portals
+ * per ray, and the maximum distance covers the whole path, not each leg. A ray that runs out of
+ * transits stops at the portal. Only partners in the same world are followed, since another
+ * world's chunks can only be read on that world's thread; a portal to another world stops the ray.
+ *
+ * Not thread safe; must be used on the thread that owns the world. The result is kept in this
+ * instance, so read it before the next cast.
+ */
+public class PortalRaycast {
+
+    /**
+     * Portals a single ray may pass through
+     */
+    public static final int MAX_TRANSITS = 4;
+
+    // How far in front of the exit face a carried-over ray starts
+    private static final double EXIT_OFFSET = 1.0e-4;
+
+    private final VoxelRaycast ray = new VoxelRaycast();
+    private final List<Portal> nearby = new ArrayList<>();
+
+    // Last cast
+    private int transits;
+    private double distance;
+
+    /**
+     * Cast a ray through a world and any linked portals in it
+     * @param worldHandle Handle of the world (see {@link dev.jsemolik.hytaleportal.util.WorldRegistry})
+     * @return true if a block was hit within maxDistance along the whole path (read it with {@link #getHit()})
+     */
+    public boolean cast(World world, int worldHandle, double originX, double originY, double originZ,
+                        double directionX, double directionY, double directionZ, double maxDistance) {
+        transits = 0;
+        double travelled = 0;
+        try {
+            while (true) {
+                if (!ray.cast(world, originX, originY, originZ, directionX, directionY, directionZ, maxDistance - travelled)) {
+                    return false;
+                }
+                distance = travelled + ray.getDistance();
+
+                PortalTransform transform = transitAt(worldHandle);
+                if (transform == null || transits == MAX_TRANSITS) {
+                    return true;
+                }
+
+                // Carry the ray over to the partner portal
+                travelled = distance;
+                transits++;
+                Portal exit = transform.getExit();
+                double hitX = ray.getHitX();
+                double hitZ = ray.getHitZ();
+                originX = transform.positionX(hitX, hitZ) + exit.getNormalX() * EXIT_OFFSET;
+                originY = transform.positionY(ray.getHitY());
+                originZ = transform.positionZ(hitX, hitZ) + exit.getNormalZ() * EXIT_OFFSET;
+                double turnedX = transform.rotateX(directionX, directionZ);
+                directionZ = transform.rotateZ(directionX, directionZ);
+                directionX = turnedX;
+            }
+        } finally {
+            nearby.clear();
+        }
+    }
+
+    /**
+     * Get the transform of the portal whose front face the ray just hit, if it leads somewhere
+     * the ray can follow
+     */
+    private PortalTransform transitAt(int worldHandle) {
+        if (ray.getNormalY() != 0) {
+            return null;
+        }
+        PortalSpatialIndex index = PortalManager.getInstance().getSpatialIndex(worldHandle);
+        if (index == null || index.isEmpty()) {
+            return null;
+        }
+
+        double blockCenterX = ray.getBlockX() + 0.5;
+        double blockCenterY = ray.getBlockY() + 0.5;
+        double blockCenterZ = ray.getBlockZ() + 0.5;
+        nearby.clear();
+        index.collectNear(blockCenterX, blockCenterY, blockCenterZ, 0.5, nearby);
+        for (Portal portal : nearby) {
+            if (portal.getNormalX() != ray.getNormalX() || portal.getNormalZ() != ray.getNormalZ()
+                    || !portal.containsPoint(blockCenterX, blockCenterY, blockCenterZ)) {
+                continue;
+            }
+            PortalPair pair = PortalManager.getInstance().getPortalPair(portal.getOwnerUUID());
+            PortalTransform transform = pair != null ? pair.getTransform(portal.getType()) : null;
+            if (transform == null || transform.getEntry().getId() != portal.getId()
+                    || transform.getExit().getWorldHandle() != worldHandle) {
+                return null;
+            }
+            return transform;
+        }
+        return null;
+    }
+
+    /**
+     * Get the hit of the last leg of the path: block, face and hit point
+     */
+    public VoxelRaycast getHit() {
+        return ray;
+    }
+
+    /**
+     * Get the number of portals the last ray passed through
+     */
+    public int getTransits() {
+        return transits;
+    }
+
+    /**
+     * Get the length of the whole path of the last ray, through all portals
+     */
+    public double getDistance() {
+        return distance;
+    }
+}
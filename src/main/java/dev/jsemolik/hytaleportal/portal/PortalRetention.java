@@ -0,0 +1,360 @@
+package dev.jsemolik.hytaleportal.portal;
+
+import com.hypixel.hytale.math.vector.Vector3d;
+import com.hypixel.hytale.server.core.universe.PlayerRef;
+import com.hypixel.hytale.server.core.universe.Universe;
+import com.hypixel.hytale.server.core.universe.world.World;
+import dev.jsemolik.hytaleportal.HytalePortal;
+import dev.jsemolik.hytaleportal.persistence.OfflinePortalStore;
+import dev.jsemolik.hytaleportal.persistence.PortalJournal;
+import dev.jsemolik.hytaleportal.util.HandleTable;
+import dev.jsemolik.hytaleportal.util.PerWorldTask;
+import dev.jsemolik.hytaleportal.util.PlayerIndex;
+import dev.jsemolik.hytaleportal.util.WorldRegistry;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the portals of offline owners in the world without keeping them all in memory.
+ *
+ * While more portals are resident than the configured budget allows, the least recently used
+ * pairs of offline owners are written to the {@link OfflinePortalStore} and dropped from the
+ * PortalManager; their blocks stay in the world. They are loaded back when the owner logs in
+ * or a player comes within a region of one of the portals.
+ *
+ * All store access happens on a single background thread, so disk I/O never runs on a world
+ * thread. Player positions are read on each world's own thread by a task the sweep dispatches;
+ * the sweep works from the regions those tasks last reported. The sweep goes dormant when
+ * nothing is stored and the budget is not exceeded.
+ */
+public class PortalRetention {
+
+    private static final long SWEEP_INTERVAL_MS = 1000;
+
+    /**
+     * Regions around each player (in every direction) whose stored portals are loaded back
+     */
+    private static final int LOAD_RADIUS_REGIONS = 1;
+
+    /**
+     * Player regions older than this are not trusted for eviction (the world did not report in time)
+     */
+    private static final long PLAYER_REGIONS_MAX_AGE_MS = SWEEP_INTERVAL_MS * 3;
+
+    private final OfflinePortalStore store;
+    @Nullable
+    private final PortalJournal journal;
+    private final int maxResidentPortals;
+    private final long evictionIdleMillis;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "HytalePortal-Retention");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> sweepTask;
+    private boolean enabled;
+
+    // Resident owners with their last use, least recently used first (retention thread only)
+    private final LinkedHashMap<UUID, Long> lastUsed = new LinkedHashMap<>(16, 0.75f, true);
+    private long lastSnapshotVersion = -1;
+
+    // Players and the regions around them per world handle, as last reported by the world's thread
+    private final HandleTable<PlayerRegions> playerRegions = new HandleTable<>();
+    private final PerWorldTask collectPlayerRegions = new PerWorldTask("portal retention player scan", this::collectPlayerRegions);
+
+    public PortalRetention(OfflinePortalStore store, @Nullable PortalJournal journal, int maxResidentPortals, int evictionIdleSeconds) {
+        this.store = store;
+        this.journal = journal;
+        this.maxResidentPortals = maxResidentPortals;
+        this.evictionIdleMillis = evictionIdleSeconds * 1000L;
+    }
+
+    /**
+     * Open the store and start sweeping (dormant until there is something to do)
+     */
+    public synchronized void start() {
+        if (enabled) {
+            return;
+        }
+        enabled = true;
+        executor.execute(() -> {
+            try {
+                store.open();
+            } catch (IOException e) {
+                HytalePortal.getPluginLogger().atInfo().log("[ERROR] Could not open offline portal store: " + e.getMessage());
+            }
+            wake();
+        });
+    }
+
+    /**
+     * Resume the sweep if there are stored portals to watch for or too many resident ones
+     */
+    public synchronized void wake() {
+        if (!enabled || sweepTask != null || !hasWork()) {
+            return;
+        }
+        sweepTask = executor.scheduleWithFixedDelay(this::sweep, 0, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Put the sweep to sleep when there is nothing left to do
+     */
+    private synchronized void suspendIfIdle() {
+        // Re-check under the lock so a change made meanwhile keeps the task alive
+        if (sweepTask == null || hasWork()) {
+            return;
+        }
+        sweepTask.cancel(false);
+        sweepTask = null;
+    }
+
+    private boolean hasWork() {
+        return !store.isEmpty() || PortalManager.getInstance().getTotalPortalCount() > maxResidentPortals;
+    }
+
+    /**
+     * Stop sweeping; stored portals stay on disk
+     */
+    public void stop() {
+        synchronized (this) {
+            enabled = false;
+            if (sweepTask != null) {
+                sweepTask.cancel(false);
+                sweepTask = null;
+            }
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Load a player's stored portals back when they log in
+     */
+    public void onOwnerOnline(UUID ownerUUID) {
+        try {
+            executor.execute(() -> load(ownerUUID));
+        } catch (Exception e) {
+            // Shutting down
+        }
+    }
+
+    /**
+     * A player logged out: their portals may now become eviction candidates
+     */
+    public void onOwnerOffline(UUID ownerUUID) {
+        wake();
+    }
+
+    /**
+     * Load back stored portals near players and evict idle ones while over budget (retention thread)
+     */
+    private void sweep() {
+        try {
+            long now = System.currentTimeMillis();
+            PortalSnapshot snapshot = PortalManager.getInstance().getSnapshot();
+            trackResidentOwners(snapshot, now);
+
+            // Regions around the players of every world, as last reported; ask for fresh ones for the next sweep
+            Map<Integer, Set<Long>> nearPlayers = new HashMap<>();
+            boolean allReported = true;
+            WorldRegistry registry = WorldRegistry.get();
+            for (World world : Universe.get().getWorlds().values()) {
+                int worldHandle = registry.handleOf(world);
+                collectPlayerRegions.dispatch(worldHandle, world);
+
+                PlayerRegions reported = playerRegions.get(worldHandle);
+                if (reported == null || now - reported.time > PLAYER_REGIONS_MAX_AGE_MS) {
+                    allReported = false;
+                    continue;
+                }
+                for (UUID playerUUID : reported.players) {
+                    if (lastUsed.containsKey(playerUUID)) {
+                        lastUsed.put(playerUUID, now);
+                    }
+                }
+                nearPlayers.put(worldHandle, reported.regions);
+            }
+
+            // Bring back stored portals that players are approaching
+            if (!store.isEmpty()) {
+                for (Map.Entry<Integer, Set<Long>> entry : nearPlayers.entrySet()) {
+                    String worldName = registry.nameOf(entry.getKey());
+                    for (long region : entry.getValue()) {
+                        if (store.hasRegion(worldName, region)) {
+                            // Loaded owners take themselves out of the region; the rest stay listed for a retry
+                            boolean allLoaded = true;
+                            for (UUID ownerUUID : store.readRegion(worldName, region)) {
+                                allLoaded &= load(ownerUUID);
+                            }
+                            if (allLoaded) {
+                                store.dropRegion(worldName, region);
+                            }
+                        }
+                    }
+                }
+            }
+
+            // Over budget: evict least recently used pairs of offline owners, once every world has
+            // said where its players are (never on a guess)
+            int excess = PortalManager.getInstance().getTotalPortalCount() - maxResidentPortals;
+            if (excess > 0 && allReported) {
+                evict(excess, nearPlayers, now);
+            }
+
+            suspendIfIdle();
+        } catch (Exception e) {
+            HytalePortal.getPluginLogger().atInfo().log("[ERROR] Error in portal retention sweep: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Keep the LRU order in step with the resident pairs (only when they changed)
+     */
+    private void trackResidentOwners(PortalSnapshot snapshot, long now) {
+        if (snapshot.getVersion() == lastSnapshotVersion) {
+            return;
+        }
+        lastSnapshotVersion = snapshot.getVersion();
+
+        Map<UUID, PortalPair> pairs = snapshot.getPortalPairs();
+        lastUsed.keySet().retainAll(pairs.keySet());
+        for (UUID ownerUUID : pairs.keySet()) {
+            // New pairs count as just used (containsKey does not touch the access order)
+            if (!lastUsed.containsKey(ownerUUID)) {
+                lastUsed.put(ownerUUID, now);
+            }
+        }
+    }
+
+    /**
+     * Record the players of a world and the regions around them (world thread)
+     */
+    private void collectPlayerRegions(World world, int worldHandle) {
+        Set<UUID> players = new HashSet<>();
+        Set<Long> regions = new HashSet<>();
+        for (PlayerRef playerRef : world.getPlayerRefs()) {
+            players.add(playerRef.getUuid());
+
+            Vector3d position = playerRef.getTransform().getPosition();
+            int regionX = OfflinePortalStore.toRegion((int) Math.floor(position.x));
+            int regionZ = OfflinePortalStore.toRegion((int) Math.floor(position.z));
+            for (int dx = -LOAD_RADIUS_REGIONS; dx <= LOAD_RADIUS_REGIONS; dx++) {
+                for (int dz = -LOAD_RADIUS_REGIONS; dz <= LOAD_RADIUS_REGIONS; dz++) {
+                    regions.add(OfflinePortalStore.packRegion(regionX + dx, regionZ + dz));
+                }
+            }
+        }
+        playerRegions.put(worldHandle, new PlayerRegions(players, regions, System.currentTimeMillis()));
+    }
+
+    private void evict(int excess, Map<Integer, Set<Long>> nearPlayers, long now) throws IOException {
+        int evicted = 0;
+        Iterator<Map.Entry<UUID, Long>> iterator = lastUsed.entrySet().iterator();
+        while (excess > 0 && iterator.hasNext()) {
+            Map.Entry<UUID, Long> entry = iterator.next();
+            if (now - entry.getValue() < evictionIdleMillis) {
+                break; // Everything after this was used more recently
+            }
+            UUID ownerUUID = entry.getKey();
+            PortalPair pair = PortalManager.getInstance().getPortalPair(ownerUUID);
+            if (pair == null) {
+                iterator.remove();
+                continue;
+            }
+            if (PlayerIndex.get().get(ownerUUID) != null || isNearPlayers(pair, nearPlayers)) {
+                continue;
+            }
+
+            store.store(pair);
+            if (PortalManager.getInstance().evict(pair)) {
+                iterator.remove();
+                excess -= (pair.getBluePortal() != null ? 1 : 0) + (pair.getOrangePortal() != null ? 1 : 0);
+                evicted++;
+            } else {
+                // Changed while it was being written; the resident pair wins
+                store.delete(ownerUUID);
+            }
+        }
+
+        if (evicted > 0) {
+            HytalePortal.getPluginLogger().atInfo().log("Moved portals of " + evicted + " offline players to disk");
+        }
+    }
+
+    /**
+     * Load a stored pair back into memory and drop it from disk once the journal has it again.
+     * If the owner placed portals meanwhile, those win; the stored colours they replaced are
+     * removed from the world (see {@link PortalManager#restoreEvicted}).
+     * @return false if the stored pair could not be loaded (it stays on disk)
+     */
+    private boolean load(UUID ownerUUID) {
+        try {
+            PortalPair pair = store.load(ownerUUID);
+            if (pair == null) {
+                return true; // Nothing stored
+            }
+            PortalManager.getInstance().restoreEvicted(pair);
+            if (journal != null) {
+                journal.sync();
+            }
+            store.delete(ownerUUID);
+            lastUsed.put(ownerUUID, System.currentTimeMillis());
+
+            HytalePortal.getPluginLogger().atInfo().log("Loaded stored portals of player " + ownerUUID);
+            return true;
+        } catch (IOException e) {
+            HytalePortal.getPluginLogger().atInfo().log("[ERROR] Could not load stored portals of " + ownerUUID + ": " + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static boolean isNearPlayers(PortalPair pair, Map<Integer, Set<Long>> nearPlayers) {
+        return isNearPlayers(pair.getBluePortal(), nearPlayers) || isNearPlayers(pair.getOrangePortal(), nearPlayers);
+    }
+
+    private static boolean isNearPlayers(@Nullable Portal portal, Map<Integer, Set<Long>> nearPlayers) {
+        if (portal == null) {
+            return false;
+        }
+        Set<Long> regions = nearPlayers.get(portal.getWorldHandle());
+        return regions != null && regions.contains(OfflinePortalStore.packRegion(
+            OfflinePortalStore.toRegion(portal.getBlockX()), OfflinePortalStore.toRegion(portal.getBlockZ())));
+    }
+
+    /**
+     * Players of a world and the regions around them, as reported by the world's thread
+     */
+    private static final class PlayerRegions {
+        final Set<UUID> players;
+        final Set<Long> regions;
+        final long time;
+
+        PlayerRegions(Set<UUID> players, Set<Long> regions, long time) {
+            this.players = players;
+            this.regions = regions;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package dev.jsemolik.hytaleportal.portal;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * An immutable, versioned view of every portal pair.
+ * The PortalManager builds a new snapshot on each change and publishes it through a
+ * volatile reference, so readers get a consistent view without copying or locking.
+ * Consecutive snapshots share the unchanged parts of their map, and the counts are handed in
+ * by the manager, so building one does not touch every pair.
+ */
+public final class PortalSnapshot {
+
+    public static final PortalSnapshot EMPTY = new PortalSnapshot(0, Map.of(), 0, 0);
+
+    private final long version;
+    private final Map<UUID, PortalPair> portalPairs;
+    private final int totalPortalCount;
+    private final int completePairCount;
+
+    /**
+     * @param portalPairs Must be an immutable map
+     * @param totalPortalCount Number of portals in portalPairs
+     * @param completePairCount Number of pairs in portalPairs with both portals
+     */
+    PortalSnapshot(long version, Map<UUID, PortalPair> portalPairs, int totalPortalCount, int completePairCount) {
+        this.version = version;
+        this.portalPairs = portalPairs;
+        this.totalPortalCount = totalPortalCount;
+        this.completePairCount = completePairCount;
+    }
+
+    /**
+     * Get the version of this snapshot (increases with every change)
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get all portal pairs keyed by owner UUID (immutable)
+     */
+    public Map<UUID, PortalPair> getPortalPairs() {
+        return portalPairs;
+    }
+
+    @Nullable
+    public PortalPair getPortalPair(UUID playerUUID) {
+        return portalPairs.get(playerUUID);
+    }
+
+    public int getTotalPortalCount() {
+        return totalPortalCount;
+    }
+
+    public int getCompletePairCount() {
+        return completePairCount;
+    }
+}
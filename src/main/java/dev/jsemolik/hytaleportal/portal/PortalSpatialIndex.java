@@ -0,0 +1,284 @@
+package dev.jsemolik.hytaleportal.portal;
+
+import dev.jsemolik.hytaleportal.util.LongIntHashMap;
+import dev.jsemolik.hytaleportal.util.LongObjectHashMap;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Spatial hash of all portals in a single world.
+ * Maps packed cell coordinates to the portals anchored in that cell, so entry
+ * checks only have to look at the handful of portals around a player.
+ *
+ * Both tables are primitive-keyed and changed in place under a {@link StampedLock}, so adding or
+ * removing a portal costs the same however many are indexed. The tables are not safe to walk
+ * while a write is resizing or shifting them, so lookups take the read lock; portals change
+ * rarely compared to how often they are looked up, so readers on the world threads practically
+ * never wait. Use {@link #addAll} for bulk loads.
+ */
+public class PortalSpatialIndex {
+
+    /**
+     * Cells are 8x8x8 blocks (1 << CELL_SHIFT)
+     */
+    public static final int CELL_SHIFT = 3;
+
+    /**
+     * Coarse 2D regions are 64x64 block columns (1 << REGION_SHIFT), used for nearest-portal distance bounds
+     */
+    public static final int REGION_SHIFT = 6;
+    private static final int REGION_SIZE = 1 << REGION_SHIFT;
+
+    private static final int CELL_BITS = 21;
+    private static final long CELL_MASK = (1L << CELL_BITS) - 1;
+    private static final Portal[] NO_PORTALS = new Portal[0];
+
+    private final StampedLock lock = new StampedLock();
+
+    // Packed cell key -> portals anchored in that cell (the arrays are never changed once stored)
+    private final LongObjectHashMap<Portal[]> cells = new LongObjectHashMap<>();
+    // Packed region key -> number of portals anchored in that column
+    private final LongIntHashMap regionCounts = new LongIntHashMap();
+    private volatile int size;
+    private volatile int version;
+
+    /**
+     * Pack cell coordinates into a single long key (21 bits per axis)
+     */
+    public static long packCell(int cellX, int cellY, int cellZ) {
+        return ((cellX & CELL_MASK) << (CELL_BITS * 2))
+            | ((cellY & CELL_MASK) << CELL_BITS)
+            | (cellZ & CELL_MASK);
+    }
+
+    /**
+     * Get the cell coordinate containing a world coordinate
+     */
+    public static int toCell(double coordinate) {
+        return ((int) Math.floor(coordinate)) >> CELL_SHIFT;
+    }
+
+    /**
+     * Add a portal to the index. Each portal is anchored in the cell of its bottom block.
+     */
+    public void add(Portal portal) {
+        addAll(List.of(portal));
+    }
+
+    /**
+     * Add many portals under a single write lock
+     */
+    public void addAll(Collection<Portal> portals) {
+        if (portals.isEmpty()) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            for (Portal portal : portals) {
+                long key = cellKeyOf(portal);
+                Portal[] existing = cells.get(key);
+                if (existing == null) {
+                    existing = NO_PORTALS;
+                }
+                Portal[] updated = new Portal[existing.length + 1];
+                System.arraycopy(existing, 0, updated, 0, existing.length);
+                updated[existing.length] = portal;
+                cells.put(key, updated);
+                regionCounts.addTo(regionKeyOf(portal), 1);
+            }
+            size += portals.size();
+            version++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove a portal from the index
+     * @return true if the portal was indexed
+     */
+    public boolean remove(Portal portal) {
+        long key = cellKeyOf(portal);
+        long stamp = lock.writeLock();
+        try {
+            Portal[] existing = cells.get(key);
+            if (existing == null) {
+                return false;
+            }
+
+            for (int i = 0; i < existing.length; i++) {
+                if (existing[i] == portal) {
+                    if (existing.length == 1) {
+                        cells.remove(key);
+                    } else {
+                        Portal[] updated = new Portal[existing.length - 1];
+                        System.arraycopy(existing, 0, updated, 0, i);
+                        System.arraycopy(existing, i + 1, updated, i, existing.length - i - 1);
+                        cells.put(key, updated);
+                    }
+                    regionCounts.addTo(regionKeyOf(portal), -1);
+                    size--;
+                    version++;
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Collect every portal whose frame could be within the given radius of a position.
+     * Results are appended to the given list; no portal is reported twice.
+     */
+    public void collectNear(double x, double y, double z, double radius, List<Portal> out) {
+        if (size == 0) {
+            return;
+        }
+
+        // Portals are anchored at their bottom block, so widen the low side by the frame extent
+        int minCellX = toCell(x - radius - Portal.WIDTH);
+        int minCellY = toCell(y - radius - Portal.HEIGHT);
+        int minCellZ = toCell(z - radius - Portal.WIDTH);
+        int maxCellX = toCell(x + radius);
+        int maxCellY = toCell(y + radius);
+        int maxCellZ = toCell(z + radius);
+
+        long stamp = lock.readLock();
+        try {
+            collectCells(minCellX, minCellY, minCellZ, maxCellX, maxCellY, maxCellZ, out);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void collectCells(int minCellX, int minCellY, int minCellZ, int maxCellX, int maxCellY, int maxCellZ, List<Portal> out) {
+        for (int cx = minCellX; cx <= maxCellX; cx++) {
+            for (int cy = minCellY; cy <= maxCellY; cy++) {
+                for (int cz = minCellZ; cz <= maxCellZ; cz++) {
+                    Portal[] portals = cells.get(packCell(cx, cy, cz));
+                    if (portals != null) {
+                        for (Portal portal : portals) {
+                            out.add(portal);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a lower bound of the horizontal distance from a position to the nearest portal.
+     * Only coarse regions are inspected, so this is cheap even for far-away positions.
+     * @return The lower bound, or maxDistance if no portal is closer than that
+     */
+    public double nearestDistanceLowerBound(double x, double z, double maxDistance) {
+        if (size == 0) {
+            return maxDistance;
+        }
+
+        long stamp = lock.readLock();
+        try {
+            return nearestRegionDistance(x, z, maxDistance);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private double nearestRegionDistance(double x, double z, double maxDistance) {
+        int regionX = ((int) Math.floor(x)) >> REGION_SHIFT;
+        int regionZ = ((int) Math.floor(z)) >> REGION_SHIFT;
+        int maxRing = (int) Math.ceil(maxDistance / REGION_SIZE) + 1;
+        double best = maxDistance;
+
+        // Walk outward ring by ring; regions in ring r are at least (r - 1) regions away
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (best <= (ring - 1) * (double) REGION_SIZE) {
+                break;
+            }
+            for (int rx = regionX - ring; rx <= regionX + ring; rx++) {
+                for (int rz = regionZ - ring; rz <= regionZ + ring; rz++) {
+                    if (Math.max(Math.abs(rx - regionX), Math.abs(rz - regionZ)) != ring) {
+                        continue; // Inner rings were already visited
+                    }
+                    if (!regionCounts.containsKey(packCell(rx, 0, rz))) {
+                        continue;
+                    }
+
+                    // Distance from the position to the region's column
+                    double minX = (double) rx * REGION_SIZE;
+                    double minZ = (double) rz * REGION_SIZE;
+                    double dx = Math.max(0, Math.max(minX - x, x - (minX + REGION_SIZE)));
+                    double dz = Math.max(0, Math.max(minZ - z, z - (minZ + REGION_SIZE)));
+                    best = Math.min(best, Math.sqrt(dx * dx + dz * dz));
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Get a counter that changes every time a portal is added or removed
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Call the consumer for every indexed portal
+     */
+    public void forEach(Consumer<Portal> consumer) {
+        long stamp = lock.readLock();
+        try {
+            cells.forEachValue(portals -> {
+                for (Portal portal : portals) {
+                    consumer.accept(portal);
+                }
+            });
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Get the number of indexed portals
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all portals from the index
+     */
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            cells.clear();
+            regionCounts.clear();
+            size = 0;
+            version++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private static long regionKeyOf(Portal portal) {
+        return packCell(portal.getBlockX() >> REGION_SHIFT, 0, portal.getBlockZ() >> REGION_SHIFT);
+    }
+
+    private static long cellKeyOf(Portal portal) {
+        return packCell(
+            portal.getBlockX() >> CELL_SHIFT,
+            portal.getBlockY() >> CELL_SHIFT,
+            portal.getBlockZ() >> CELL_SHIFT
+        );
+    }
+}
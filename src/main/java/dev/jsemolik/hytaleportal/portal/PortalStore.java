@@ -0,0 +1,303 @@
+package dev.jsemolik.hytaleportal.portal;
+
+import dev.jsemolik.hytaleportal.util.WorldRegistry;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Struct-of-arrays storage for every portal in memory. {@link Portal} objects are small views
+ * (slot + id) over these columns, so a portal costs a few dozen bytes of primitive arrays
+ * instead of a graph of vectors, arrays and boxed values.
+ *
+ * Per slot: portal id, packed block position, facing (quarter turns of yaw), type,
+ * world handle (see {@link WorldRegistry}) and owner index. Owner UUIDs are interned.
+ *
+ * Columns are written once per allocation, before the view is handed out. Other threads see them
+ * through whatever hands them the view (the PortalManager's volatile snapshot), not through the
+ * store itself. Released slots are reused by the next allocation; a view checks after every read
+ * that its slot still holds its id ({@link #isCurrent}) and otherwise uses the copy it took on
+ * release, so a view held past its portal's removal never reads foreign data. Reuse clears the
+ * slot's id before touching anything else and writes the new id last, so a read that overlaps a
+ * reuse fails the check.
+ */
+public final class PortalStore {
+
+    private static final PortalStore INSTANCE = new PortalStore();
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Packed position: 26 bits x, 12 bits y, 26 bits z (signed)
+    private static final int XZ_BITS = 26;
+    private static final int Y_BITS = 12;
+    private static final long XZ_MASK = (1L << XZ_BITS) - 1;
+    private static final long Y_MASK = (1L << Y_BITS) - 1;
+
+    private static final PortalType[] TYPES = PortalType.values();
+
+    // Ordered access to the id column, which guards every other column of a slot
+    private static final VarHandle IDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private volatile Columns columns = new Columns(INITIAL_CAPACITY);
+    private int highWater;   // Slots below this have been used at least once
+    private int liveCount;
+
+    // Released slots waiting to be reused (stack)
+    private int[] releasedSlots = new int[INITIAL_CAPACITY];
+    private int releasedCount;
+
+    // Interned owners with a reference count per index
+    private volatile UUID[] owners = new UUID[INITIAL_CAPACITY];
+    private int[] ownerRefs = new int[INITIAL_CAPACITY];
+    private final Map<UUID, Integer> ownerIndices = new HashMap<>();
+    private final List<Integer> freeOwnerIndices = new ArrayList<>();
+    private int ownerHighWater;
+
+    private PortalStore() {
+    }
+
+    public static PortalStore get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Write a new portal into a free slot
+     * @return The slot
+     */
+    synchronized int allocate(long id, UUID ownerUUID, PortalType type, int blockX, int blockY, int blockZ,
+                              int facing, int worldHandle, long creationTime) {
+        int slot = takeSlot();
+        Columns c = columns;
+        c.positions[slot] = packPosition(blockX, blockY, blockZ);
+        c.facings[slot] = (byte) facing;
+        c.types[slot] = (byte) type.ordinal();
+        c.worlds[slot] = worldHandle;
+        c.owners[slot] = internOwner(ownerUUID);
+        c.creationTimes[slot] = creationTime;
+        // Publish the id last: views of the slot's previous portal fail their check from here on
+        IDS.setRelease(c.ids, slot, id);
+        liveCount++;
+        return slot;
+    }
+
+    /**
+     * Give a portal's slot back for the next allocation
+     */
+    synchronized void release(int slot, long id) {
+        Columns c = columns;
+        if (c.ids[slot] != id || c.released[slot]) {
+            return; // Already released
+        }
+        c.released[slot] = true;
+        liveCount--;
+
+        if (releasedCount == releasedSlots.length) {
+            releasedSlots = Arrays.copyOf(releasedSlots, releasedSlots.length * 2);
+        }
+        releasedSlots[releasedCount++] = slot;
+    }
+
+    /**
+     * Check that a slot still holds the given portal, after reading its columns.
+     * When it does not, everything its previous portal's view did before releasing it is visible.
+     */
+    boolean isCurrent(int slot, long id) {
+        // The reads before this may not move past the id read below
+        VarHandle.acquireFence();
+        return (long) IDS.getAcquire(columns.ids, slot) == id;
+    }
+
+    /**
+     * Copy a portal's columns in one checked read
+     * @return The copy, or null if the slot holds another portal by now
+     */
+    @Nullable
+    PortalGeometry read(int slot, long id) {
+        Columns c = columns;
+        long position = c.positions[slot];
+        int facing = c.facings[slot];
+        PortalType type = TYPES[c.types[slot]];
+        int worldHandle = c.worlds[slot];
+        UUID owner = owners[c.owners[slot]];
+        long creationTime = c.creationTimes[slot];
+        if (!isCurrent(slot, id)) {
+            return null;
+        }
+        return new PortalGeometry(id, owner, type, worldHandle,
+            unpackX(position), unpackY(position), unpackZ(position), facing, creationTime);
+    }
+
+    /**
+     * Whether a portal was released (its slot is free or holds another portal by now)
+     */
+    synchronized boolean isReleased(int slot, long id) {
+        Columns c = columns;
+        return c.ids[slot] != id || c.released[slot];
+    }
+
+    /**
+     * Get the number of portals currently stored
+     */
+    public synchronized int getLiveCount() {
+        return liveCount;
+    }
+
+    /**
+     * Get the number of slots the columns have room for
+     */
+    public int getCapacity() {
+        return columns.ids.length;
+    }
+
+    long id(int slot) {
+        return columns.ids[slot];
+    }
+
+    int blockX(int slot) {
+        return unpackX(columns.positions[slot]);
+    }
+
+    int blockY(int slot) {
+        return unpackY(columns.positions[slot]);
+    }
+
+    int blockZ(int slot) {
+        return unpackZ(columns.positions[slot]);
+    }
+
+    int facing(int slot) {
+        return columns.facings[slot];
+    }
+
+    PortalType type(int slot) {
+        return TYPES[columns.types[slot]];
+    }
+
+    int worldHandle(int slot) {
+        return columns.worlds[slot];
+    }
+
+    UUID owner(int slot) {
+        return owners[columns.owners[slot]];
+    }
+
+    long creationTime(int slot) {
+        return columns.creationTimes[slot];
+    }
+
+    private int takeSlot() {
+        if (releasedCount > 0) {
+            int slot = releasedSlots[--releasedCount];
+            Columns c = columns;
+            // Invalidate views of the previous portal before any of its columns change
+            c.ids[slot] = 0;
+            VarHandle.releaseFence();
+            c.released[slot] = false;
+            releaseOwner(c.owners[slot]);
+            return slot;
+        }
+
+        if (highWater == columns.ids.length) {
+            columns = columns.grow(columns.ids.length * 2);
+        }
+        return highWater++;
+    }
+
+    private int internOwner(UUID ownerUUID) {
+        Integer index = ownerIndices.get(ownerUUID);
+        if (index == null) {
+            if (!freeOwnerIndices.isEmpty()) {
+                index = freeOwnerIndices.remove(freeOwnerIndices.size() - 1);
+            } else {
+                if (ownerHighWater == ownerRefs.length) {
+                    UUID[] grownOwners = new UUID[ownerRefs.length * 2];
+                    System.arraycopy(owners, 0, grownOwners, 0, ownerRefs.length);
+                    int[] grownRefs = new int[ownerRefs.length * 2];
+                    System.arraycopy(ownerRefs, 0, grownRefs, 0, ownerRefs.length);
+                    owners = grownOwners;
+                    ownerRefs = grownRefs;
+                }
+                index = ownerHighWater++;
+            }
+            owners[index] = ownerUUID;
+            ownerIndices.put(ownerUUID, index);
+        }
+        ownerRefs[index]++;
+        return index;
+    }
+
+    /**
+     * Drop a reference to an owner; only done when a slot is reused, so late readers still see the UUID
+     */
+    private void releaseOwner(int index) {
+        if (--ownerRefs[index] == 0) {
+            ownerIndices.remove(owners[index]);
+            freeOwnerIndices.add(index);
+        }
+    }
+
+    /**
+     * Pack a block position into a long (26 bits x, 12 bits y, 26 bits z)
+     */
+    static long packPosition(int x, int y, int z) {
+        return ((x & XZ_MASK) << (XZ_BITS + Y_BITS)) | ((y & Y_MASK) << XZ_BITS) | (z & XZ_MASK);
+    }
+
+    private static int unpackX(long position) {
+        return (int) (position >> (XZ_BITS + Y_BITS));
+    }
+
+    private static int unpackY(long position) {
+        return (int) (position << (64 - Y_BITS - XZ_BITS) >> (64 - Y_BITS));
+    }
+
+    private static int unpackZ(long position) {
+        return (int) (position << (64 - XZ_BITS) >> (64 - XZ_BITS));
+    }
+
+    /**
+     * One generation of the column arrays; replaced (never resized in place) when full
+     */
+    private static final class Columns {
+        final long[] ids;
+        final long[] positions;
+        final byte[] facings;
+        final byte[] types;
+        final int[] worlds;
+        final int[] owners;
+        final long[] creationTimes;
+        final boolean[] released;
+
+        Columns(int capacity) {
+            ids = new long[capacity];
+            positions = new long[capacity];
+            facings = new byte[capacity];
+            types = new byte[capacity];
+            worlds = new int[capacity];
+            owners = new int[capacity];
+            creationTimes = new long[capacity];
+            released = new boolean[capacity];
+        }
+
+        Columns grow(int capacity) {
+            Columns grown = new Columns(capacity);
+            int length = ids.length;
+            System.arraycopy(ids, 0, grown.ids, 0, length);
+            System.arraycopy(positions, 0, grown.positions, 0, length);
+            System.arraycopy(facings, 0, grown.facings, 0, length);
+            System.arraycopy(types, 0, grown.types, 0, length);
+            System.arraycopy(worlds, 0, grown.worlds, 0, length);
+            System.arraycopy(owners, 0, grown.owners, 0, length);
+            System.arraycopy(creationTimes, 0, grown.creationTimes, 0, length);
+            System.arraycopy(released, 0, grown.released, 0, length);
+            return grown;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package dev.jsemolik.hytaleportal.portal;
+
+/**
+ * Maps positions and directions from the frame of one portal of a pair to the frame of the other:
+ * whatever goes into the entry portal's front face comes out of the exit portal's front face, at
+ * the same spot relative to the portal and turned by the same angle.
+ *
+ * Portals face quarter turns of yaw, so the mapping is a quarter-turn rotation about the vertical
+ * axis plus a translation. It is computed once when the pair is created (see
+ * {@link PortalPair#getTransform(PortalType)}) and immutable.
+ */
+public final class PortalTransform {
+
+    private final Portal entry;
+    private final Portal exit;
+
+    // Rotation in quarter turns of yaw, as cosine and sine
+    private final int quarterTurns;
+    private final int cos;
+    private final int sin;
+
+    // Anchors: the bottom center of each front face, so one face maps onto the other
+    private final double entryX;
+    private final double entryY;
+    private final double entryZ;
+    private final double exitX;
+    private final double exitY;
+    private final double exitZ;
+
+    PortalTransform(Portal entry, Portal exit) {
+        this.entry = entry;
+        this.exit = exit;
+
+        // Turning the entry's inward direction (its normal two facings on) into the exit's normal
+        this.quarterTurns = Math.floorMod(exit.getFacing() - entry.getFacing() + 2, 4);
+        this.cos = quarterTurns == 0 ? 1 : quarterTurns == 2 ? -1 : 0;
+        this.sin = quarterTurns == 1 ? 1 : quarterTurns == 3 ? -1 : 0;
+
+        this.entryX = entry.getCenterX() + entry.getNormalX() * 0.5;
+        this.entryY = entry.getBlockY();
+        this.entryZ = entry.getCenterZ() + entry.getNormalZ() * 0.5;
+        this.exitX = exit.getCenterX() + exit.getNormalX() * 0.5;
+        this.exitY = exit.getBlockY();
+        this.exitZ = exit.getCenterZ() + exit.getNormalZ() * 0.5;
+    }
+
+    public Portal getEntry() {
+        return entry;
+    }
+
+    public Portal getExit() {
+        return exit;
+    }
+
+    /**
+     * Get the yaw (degrees) added to anything passing through
+     */
+    public float getYawOffset() {
+        return quarterTurns * 90f;
+    }
+
+    /**
+     * Map a position: x, y and z of the point on the exit side
+     */
+    public double positionX(double x, double z) {
+        return exitX + rotateX(x - entryX, z - entryZ);
+    }
+
+    public double positionY(double y) {
+        return exitY + (y - entryY);
+    }
+
+    public double positionZ(double x, double z) {
+        return exitZ + rotateZ(x - entryX, z - entryZ);
+    }
+
+    /**
+     * Map a direction: x and z of the direction on the exit side (y is unchanged)
+     */
+    public double rotateX(double x, double z) {
+        return cos * x - sin * z;
+    }
+
+    public double rotateZ(double x, double z) {
+        return sin * x + cos * z;
+    }
+}
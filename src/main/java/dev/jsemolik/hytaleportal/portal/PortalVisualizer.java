@@ -1,165 +1,114 @@
 package dev.jsemolik.hytaleportal.portal;
 
-import com.hypixel.hytale.math.vector.Vector3d;
-import com.hypixel.hytale.math.vector.Vector3i;
-import com.hypixel.hytale.server.core.HytaleServer;
-import com.hypixel.hytale.server.core.universe.Universe;
 import com.hypixel.hytale.server.core.universe.world.World;
 import dev.jsemolik.hytaleportal.HytalePortal;
+import dev.jsemolik.hytaleportal.util.HandleTable;
+import dev.jsemolik.hytaleportal.util.PluginScheduler;
+import dev.jsemolik.hytaleportal.util.TickBudget;
 
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.nio.file.Path;
 
 /**
- * Handles visualization of portals using particles.
- * Creates particle effects around portal frames and in the portal center.
+ * Handles visualization of portals.
+ * Places the frame blocks when a portal is created and removes them when it is destroyed or replaced,
+ * and renders particle effects around the portals for nearby players.
+ *
+ * Block changes are event driven: the PortalManager reports them as they happen and they are
+ * applied in batches on each world's thread (see {@link PortalBlockQueue}); nothing scans the portals.
+ * The blocks a frame replaces are put back when it is removed (see {@link OriginalBlockStore}).
+ *
+ * Both run as {@link PluginScheduler} jobs: block changes as normal work, particles as deferrable
+ * work that is the first to go when a tick runs out of time.
  */
 public class PortalVisualizer {
-    
-    private ScheduledFuture<?> particleTask;
-    
-    // Track which portals have had their blocks placed (using creation time as unique ID)
-    private final Set<Long> placedPortals = ConcurrentHashMap.newKeySet();
-    
+
     /**
-     * Start the particle visualization task
+     * Ticks between particle frames
      */
-    public void start() {
-        if (particleTask != null && !particleTask.isCancelled()) {
-            HytalePortal.getPluginLogger().atInfo().log("Portal visualizer already running");
-            return; // Already running
-        }
+    private static final int PARTICLE_INTERVAL_TICKS = 2;
 
-        HytalePortal.getPluginLogger().atInfo().log("Starting portal visualizer...");
+    private final PluginScheduler scheduler;
+    private final OriginalBlockStore originalBlocks = new OriginalBlockStore();
+    private final PortalBlockQueue blockQueue;
 
-        // Schedule particle updates at 20 ticks per second (50ms interval)
-        particleTask = HytaleServer.SCHEDULED_EXECUTOR.scheduleAtFixedRate(
-            this::updateParticles,
-            0,
-            50,
-            TimeUnit.MILLISECONDS
-        );
+    // Particle job while the visualizer is running
+    private PluginScheduler.Registration particleJob;
 
-        HytalePortal.getPluginLogger().atInfo().log("Portal visualizer started successfully");
+    // Particle renderer per world handle, only touched by that world's thread
+    private final HandleTable<PortalParticleRenderer> renderers = new HandleTable<>();
+
+    public PortalVisualizer(PluginScheduler scheduler) {
+        this.scheduler = scheduler;
+        this.blockQueue = new PortalBlockQueue(originalBlocks, scheduler);
+
+        // Block changes are applied even while stopped, so the world always matches the portals
+        scheduler.register("portal block queue", PluginScheduler.Priority.NORMAL, 1, new PluginScheduler.Job() {
+            @Override
+            public boolean hasWork(int worldHandle) {
+                return blockQueue.hasPending(worldHandle);
+            }
+
+            @Override
+            public void run(World world, int worldHandle, TickBudget budget) {
+                blockQueue.drain(world, worldHandle, budget);
+            }
+        });
     }
-    
+
     /**
-     * Stop the particle visualization task
+     * Start rendering particles (only while portals exist)
      */
-    public void stop() {
-        if (particleTask != null) {
-            particleTask.cancel(false);
-            particleTask = null;
-            HytalePortal.getPluginLogger().atInfo().log("Portal visualizer stopped");
+    public synchronized void start() {
+        if (particleJob != null) {
+            HytalePortal.getPluginLogger().atInfo().log("Portal visualizer already running");
+            return; // Already running
         }
-        // Clear tracking set
-        placedPortals.clear();
+        particleJob = scheduler.register("portal particles", PluginScheduler.Priority.DEFERRABLE, PARTICLE_INTERVAL_TICKS, new PluginScheduler.Job() {
+            @Override
+            public boolean hasWork(int worldHandle) {
+                PortalSpatialIndex index = PortalManager.getInstance().getSpatialIndex(worldHandle);
+                return index != null && !index.isEmpty();
+            }
+
+            @Override
+            public void run(World world, int worldHandle, TickBudget budget) {
+                updateWorld(world, worldHandle);
+            }
+        });
+        HytalePortal.getPluginLogger().atInfo().log("Portal visualizer started successfully");
     }
-    
+
     /**
-     * Update particles for all active portals
+     * Stop rendering particles.
+     * Block changes that are still queued are applied anyway, so the world matches the portals.
      */
-    private void updateParticles() {
-        try {
-            PortalManager manager = PortalManager.getInstance();
-            var portalPairs = manager.getAllPortalPairs();
-
-            // Iterate through all portal pairs
-            portalPairs.forEach((playerUUID, portalPair) -> {
-                // Visualize blue portal
-                if (portalPair.getBluePortal() != null) {
-                    visualizePortal(portalPair.getBluePortal());
-                }
-
-                // Visualize orange portal
-                if (portalPair.getOrangePortal() != null) {
-                    visualizePortal(portalPair.getOrangePortal());
-                }
-            });
-        } catch (Exception e) {
-            HytalePortal.getPluginLogger().atInfo().log("[ERROR] " + "Error updating portal particles: {}", e.getMessage());
-            e.printStackTrace();
+    public synchronized void stop() {
+        if (particleJob == null) {
+            return;
         }
+        scheduler.unregister(particleJob);
+        particleJob = null;
+        HytalePortal.getPluginLogger().atInfo().log("Portal visualizer stopped");
     }
-    
+
     /**
-     * Create particle effects for a single portal
+     * Render the particles of a single world (runs on the world thread)
      */
-    private void visualizePortal(Portal portal) {
-        // Only place blocks for portals that haven't been placed yet
-        long portalId = portal.getCreationTime();
-        
-        if (placedPortals.contains(portalId)) {
-            // Blocks already placed for this portal - just render particles in future
-            return;
-        }
-        
-        // Get the world
-        World world = Universe.get().getWorld(portal.getWorldName());
-        if (world == null) {
+    private void updateWorld(World world, int worldHandle) {
+        PortalSpatialIndex index = PortalManager.getInstance().getSpatialIndex(worldHandle);
+        if (index == null || index.isEmpty()) {
             return;
         }
-        
-        // Execute on world thread for thread safety
-        world.execute(() -> {
-            try {
-                placePortalBlocks(portal, world);
-                // Mark this portal as having its blocks placed
-                placedPortals.add(portalId);
-            } catch (Exception e) {
-                HytalePortal.getPluginLogger().atInfo().log("[ERROR] " + 
-                    "Error creating blocks for portal: {}",
-                    e.getMessage()
-                );
-            }
-        });
+        renderers.computeIfAbsent(worldHandle, handle -> new PortalParticleRenderer()).render(world, index);
     }
-    
+
     /**
-     * Place blocks for a portal (called once per portal)
+     * Place blocks for a portal (when it's created or loaded)
      */
-    private void placePortalBlocks(Portal portal, World world) {
-        // Get all frame positions
-        Vector3i[] framePositions = portal.getFramePositions();
-
-        // Block type to use for visualization
-        // Using Debug_Block for both portals
-        String blockType = "Debug_Block";
-
-        try {
-            // Log portal creation attempt
-            HytalePortal.getPluginLogger().atInfo().log(
-                "Creating %s portal with %s blocks at %d positions",
-                portal.getType(), blockType, framePositions.length
-            );
-
-            // Place blocks at each frame position using world coordinates
-            for (Vector3i pos : framePositions) {
-                try {
-                    // World.setBlock() uses WORLD coordinates directly
-                    world.setBlock(pos.x, pos.y, pos.z, blockType);
-                    
-                    HytalePortal.getPluginLogger().atInfo().log(
-                        "Placed %s portal block at %d, %d, %d",
-                        portal.getType(), pos.x, pos.y, pos.z
-                    );
-                } catch (Exception e) {
-                    HytalePortal.getPluginLogger().atInfo().log(
-                        "Exception placing portal block at %d, %d, %d: %s",
-                        pos.x, pos.y, pos.z, e.getMessage()
-                    );
-                    e.printStackTrace();
-                }
-            }
-        } catch (Exception e) {
-            // Log top-level exceptions
-            HytalePortal.getPluginLogger().atInfo().log(
-                "Exception in placePortalBlocks: {}",
-                e.getMessage()
-            );
-            e.printStackTrace();
+    public void placePortalBlocks(Portal portal) {
+        if (portal != null) {
+            blockQueue.place(portal);
         }
     }
 
@@ -167,50 +116,51 @@ public class PortalVisualizer {
      * Remove blocks for a portal (when it's destroyed or replaced)
      */
     public void removePortalBlocks(Portal portal) {
-        if (portal == null) {
-            return;
+        if (portal != null) {
+            blockQueue.remove(portal);
         }
+    }
 
-        // Remove from tracking set
-        placedPortals.remove(portal.getCreationTime());
+    /**
+     * Apply block changes that were waiting for a world to load
+     */
+    public void onWorldAdded(int worldHandle) {
+        scheduler.wake();
+    }
 
+    /**
+     * Load the blocks that existing portal frames replaced and start journaling changes to them
+     */
+    public void loadOriginalBlocks(Path dataDirectory) {
         try {
-            World world = Universe.get().getWorld(portal.getWorldName());
-            if (world == null) {
-                return;
-            }
+            originalBlocks.open(dataDirectory);
+        } catch (IOException e) {
+            HytalePortal.getPluginLogger().atInfo().log("[ERROR] Could not load original blocks, removed portals will leave air: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the blocks that portal frames replaced (flushed to disk alongside the portal journal)
+     */
+    public OriginalBlockStore getOriginalBlocks() {
+        return originalBlocks;
+    }
 
-            // Execute on world thread
-            world.execute(() -> {
-                try {
-                    Vector3i[] framePositions = portal.getFramePositions();
-                    for (Vector3i pos : framePositions) {
-                        try {
-                            // breakBlock requires 4 parameters: x, y, z, filler
-                            world.breakBlock(pos.x, pos.y, pos.z, 0);
-                        } catch (Exception e) {
-                            // Silently fail on individual block removal
-                        }
-                    }
-                } catch (Exception e) {
-                    HytalePortal.getPluginLogger().atInfo().log(
-                        "Error removing portal blocks: %s",
-                        e.getMessage()
-                    );
-                }
-            });
-        } catch (Exception e) {
-            HytalePortal.getPluginLogger().atInfo().log(
-                "Error in removePortalBlocks: %s",
-                e.getMessage()
-            );
+    /**
+     * Compact the blocks that portal frames replaced into a final snapshot and close their journal
+     */
+    public void closeOriginalBlocks() {
+        try {
+            originalBlocks.close();
+        } catch (IOException e) {
+            HytalePortal.getPluginLogger().atInfo().log("[ERROR] Could not save original blocks: " + e.getMessage());
         }
     }
 
     /**
-     * Check if the visualizer is running
+     * Check if the visualizer is rendering particles
      */
-    public boolean isRunning() {
-        return particleTask != null && !particleTask.isCancelled();
+    public synchronized boolean isRunning() {
+        return particleJob != null;
     }
 }
@@ -0,0 +1,79 @@
+package dev.jsemolik.hytaleportal.util;
+
+import javax.annotation.Nullable;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Values indexed by a small int handle (see {@link WorldRegistry}).
+ * Reads are a plain array index with no locking; writes are serialized and grow the array as needed.
+ */
+public class HandleTable<V> {
+
+    private volatile Object[] values = new Object[0];
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(int handle) {
+        Object[] current = values;
+        return handle < current.length ? (V) current[handle] : null;
+    }
+
+    /**
+     * Get the value for a handle, creating it on first use
+     */
+    public V computeIfAbsent(int handle, IntFunction<V> factory) {
+        V value = get(handle);
+        return value != null ? value : create(handle, factory);
+    }
+
+    /**
+     * Get one past the highest handle that may have a value
+     */
+    public int length() {
+        return values.length;
+    }
+
+    /**
+     * Call the consumer for every value
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super V> consumer) {
+        for (Object value : values) {
+            if (value != null) {
+                consumer.accept((V) value);
+            }
+        }
+    }
+
+    /**
+     * Set the value for a handle
+     */
+    public synchronized void put(int handle, V value) {
+        Object[] current = values;
+        Object[] updated = new Object[Math.max(current.length, handle + 1)];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[handle] = value;
+        values = updated;
+    }
+
+    public synchronized void clear() {
+        values = new Object[0];
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized V create(int handle, IntFunction<V> factory) {
+        Object[] current = values;
+        if (handle < current.length && current[handle] != null) {
+            return (V) current[handle];
+        }
+
+        // Copy-on-write so readers never see a half-grown array
+        Object[] updated = new Object[Math.max(current.length, handle + 1)];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        V value = factory.apply(handle);
+        updated[handle] = value;
+        values = updated;
+        return value;
+    }
+}
@@ -0,0 +1,178 @@
+package dev.jsemolik.hytaleportal.util;
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive longs to positive int counts in an open-addressing table.
+ * A count that drops to zero removes its key, so the map only holds keys with a positive count.
+ * It can also hold plain non-zero values through {@link #put} and {@link #remove}.
+ *
+ * Not thread safe.
+ */
+public class LongIntHashMap {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] counts; // 0 = empty slot
+    private int size;
+
+    public LongIntHashMap() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private LongIntHashMap(int capacity) {
+        keys = new long[capacity];
+        counts = new int[capacity];
+    }
+
+    /**
+     * Add a delta to a key's count, removing the key once its count reaches zero
+     * @return The new count
+     */
+    public int addTo(long key, int delta) {
+        int slot = findSlot(key);
+        if (counts[slot] == 0) {
+            if (delta <= 0) {
+                return 0;
+            }
+            if ((size + 1) * 4 > counts.length * 3) {
+                resize(counts.length * 2);
+                slot = findSlot(key);
+            }
+            keys[slot] = key;
+            counts[slot] = delta;
+            size++;
+            return delta;
+        }
+
+        int count = counts[slot] + delta;
+        if (count <= 0) {
+            removeSlot(slot);
+            return 0;
+        }
+        counts[slot] = count;
+        return count;
+    }
+
+    /**
+     * Set a key's value (must not be 0)
+     */
+    public void put(long key, int value) {
+        if (value == 0) {
+            throw new IllegalArgumentException("value must not be 0");
+        }
+        int slot = findSlot(key);
+        if (counts[slot] == 0) {
+            if ((size + 1) * 4 > counts.length * 3) {
+                resize(counts.length * 2);
+                slot = findSlot(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        counts[slot] = value;
+    }
+
+    /**
+     * Remove a key
+     * @return Its value, or 0 if it was absent
+     */
+    public int remove(long key) {
+        int slot = findSlot(key);
+        int value = counts[slot];
+        if (value != 0) {
+            removeSlot(slot);
+        }
+        return value;
+    }
+
+    /**
+     * Call the consumer for every key and its value
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                consumer.accept(keys[i], counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Get a key's count (0 if absent)
+     */
+    public int get(long key) {
+        return counts[findSlot(key)];
+    }
+
+    public boolean containsKey(long key) {
+        return counts[findSlot(key)] != 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove every key (keeps the capacity)
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(counts, 0);
+            size = 0;
+        }
+    }
+
+    private int findSlot(long key) {
+        int mask = counts.length - 1;
+        int slot = hash(key) & mask;
+        while (counts[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void removeSlot(int slot) {
+        int mask = counts.length - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (counts[next] != 0) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                counts[hole] = counts[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        counts[hole] = 0;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[capacity];
+        counts = new int[capacity];
+        for (int i = 0; i < oldCounts.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, int value);
+    }
+}
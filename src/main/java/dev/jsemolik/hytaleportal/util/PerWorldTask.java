@@ -0,0 +1,76 @@
+package dev.jsemolik.hytaleportal.util;
+
+import com.hypixel.hytale.server.core.universe.world.World;
+import dev.jsemolik.hytaleportal.HytalePortal;
+
+import java.util.BitSet;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Runs a task on a world's own thread, at most once in flight per world.
+ * If a world is still busy with the previous run, the next dispatch is skipped
+ * instead of piling more work onto its queue.
+ *
+ * Worlds are identified by their {@link WorldRegistry} handle, which is passed on to the task.
+ */
+public class PerWorldTask {
+
+    private final String name;
+    private final ObjIntConsumer<World> task;
+
+    // Handles of worlds with a run queued but not yet finished (guarded by itself)
+    private final BitSet pendingWorlds = new BitSet();
+
+    public PerWorldTask(String name, ObjIntConsumer<World> task) {
+        this.name = name;
+        this.task = task;
+    }
+
+    /**
+     * Queue a run on the world's thread
+     * @return false if the previous run for this world has not finished yet
+     */
+    public boolean dispatch(int worldHandle, World world) {
+        synchronized (pendingWorlds) {
+            if (pendingWorlds.get(worldHandle)) {
+                return false;
+            }
+            pendingWorlds.set(worldHandle);
+        }
+
+        try {
+            world.execute(() -> {
+                try {
+                    task.accept(world, worldHandle);
+                } catch (Exception e) {
+                    HytalePortal.getPluginLogger().atInfo().log(
+                        "[ERROR] Error running %s in world %s: %s",
+                        name, world.getName(), e.getMessage()
+                    );
+                } finally {
+                    finished(worldHandle);
+                }
+            });
+        } catch (Exception e) {
+            // World is shutting down and no longer accepts tasks
+            finished(worldHandle);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forget any pending runs (tasks already queued still execute)
+     */
+    public void reset() {
+        synchronized (pendingWorlds) {
+            pendingWorlds.clear();
+        }
+    }
+
+    private void finished(int worldHandle) {
+        synchronized (pendingWorlds) {
+            pendingWorlds.clear(worldHandle);
+        }
+    }
+}
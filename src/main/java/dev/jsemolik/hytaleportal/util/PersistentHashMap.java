@@ -0,0 +1,346 @@
+package dev.jsemolik.hytaleportal.util;
+
+import javax.annotation.Nullable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable hash map whose versions share structure (a hash array mapped trie).
+ *
+ * {@link #plus} and {@link #minus} return a new map and leave this one untouched. Only the path
+ * from the root to the changed entry is copied, at most seven small arrays, so keeping every
+ * version immutable costs O(log32 n) per change instead of a copy of the whole map.
+ * Lookups walk the same path. Keys and values must not be null.
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    // Levels of branches (shift 0 to 30) plus one of collisions
+    private static final int MAX_DEPTH = 8;
+
+    private static final Branch EMPTY_ROOT = new Branch(0, new Object[0]);
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(EMPTY_ROOT, 0);
+
+    private final Branch root;
+    private final int size;
+
+    private PersistentHashMap(Branch root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    @Nullable
+    public V get(Object key) {
+        Leaf<K, V> leaf = find(key);
+        return leaf != null ? leaf.getValue() : null;
+    }
+
+    /**
+     * Get a map with the key set to the value
+     */
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        Leaf<K, V> existing = find(key);
+        if (existing != null && existing.getValue() == value) {
+            return this;
+        }
+        Branch updated = (Branch) put(root, new Leaf<>(key, value, hash(key)), 0);
+        return new PersistentHashMap<>(updated, existing != null ? size : size + 1);
+    }
+
+    /**
+     * Get a map without the key
+     */
+    public PersistentHashMap<K, V> minus(Object key) {
+        if (find(key) == null) {
+            return this;
+        }
+        Object updated = remove(root, key, hash(key), 0, true);
+        return updated == null ? empty() : new PersistentHashMap<>((Branch) updated, size - 1);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private Leaf<K, V> find(Object key) {
+        if (key == null || size == 0) {
+            return null;
+        }
+        int hash = hash(key);
+        Object node = root;
+        for (int shift = 0; ; shift += BITS) {
+            if (node instanceof Branch) {
+                Branch branch = (Branch) node;
+                int bit = bit(hash, shift);
+                if ((branch.bitmap & bit) == 0) {
+                    return null;
+                }
+                node = branch.children[branch.index(bit)];
+            } else if (node instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) node;
+                return leaf.hash == hash && leaf.getKey().equals(key) ? leaf : null;
+            } else {
+                Collision collision = (Collision) node;
+                if (collision.hash != hash) {
+                    return null;
+                }
+                for (Leaf<?, ?> leaf : collision.leaves) {
+                    if (leaf.getKey().equals(key)) {
+                        return (Leaf<K, V>) leaf;
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Put a leaf below a node, copying the path to it
+     */
+    private static Object put(Object node, Leaf<?, ?> leaf, int shift) {
+        if (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int bit = bit(leaf.hash, shift);
+            int index = branch.index(bit);
+            if ((branch.bitmap & bit) == 0) {
+                Object[] children = new Object[branch.children.length + 1];
+                System.arraycopy(branch.children, 0, children, 0, index);
+                children[index] = leaf;
+                System.arraycopy(branch.children, index, children, index + 1, branch.children.length - index);
+                return new Branch(branch.bitmap | bit, children);
+            }
+            Object[] children = branch.children.clone();
+            children[index] = put(children[index], leaf, shift + BITS);
+            return new Branch(branch.bitmap, children);
+        }
+
+        if (node instanceof Leaf) {
+            Leaf<?, ?> existing = (Leaf<?, ?>) node;
+            if (existing.hash == leaf.hash && existing.getKey().equals(leaf.getKey())) {
+                return leaf;
+            }
+            return merge(existing, existing.hash, leaf, shift);
+        }
+
+        Collision collision = (Collision) node;
+        if (collision.hash != leaf.hash) {
+            return merge(collision, collision.hash, leaf, shift);
+        }
+        Leaf<?, ?>[] leaves = collision.leaves;
+        for (int i = 0; i < leaves.length; i++) {
+            if (leaves[i].getKey().equals(leaf.getKey())) {
+                Leaf<?, ?>[] replaced = leaves.clone();
+                replaced[i] = leaf;
+                return new Collision(collision.hash, replaced);
+            }
+        }
+        Leaf<?, ?>[] grown = new Leaf<?, ?>[leaves.length + 1];
+        System.arraycopy(leaves, 0, grown, 0, leaves.length);
+        grown[leaves.length] = leaf;
+        return new Collision(collision.hash, grown);
+    }
+
+    /**
+     * Combine a node (leaf or collision) and a leaf with a different key into one subtree
+     */
+    private static Object merge(Object existing, int existingHash, Leaf<?, ?> leaf, int shift) {
+        if (existingHash == leaf.hash) {
+            // Only reachable for a single leaf; a collision with the same hash is extended instead
+            return new Collision(leaf.hash, new Leaf<?, ?>[] { (Leaf<?, ?>) existing, leaf });
+        }
+        int existingBit = bit(existingHash, shift);
+        int leafBit = bit(leaf.hash, shift);
+        if (existingBit == leafBit) {
+            return new Branch(existingBit, new Object[] { merge(existing, existingHash, leaf, shift + BITS) });
+        }
+        Object[] children = Integer.compareUnsigned(existingBit, leafBit) < 0
+            ? new Object[] { existing, leaf }
+            : new Object[] { leaf, existing };
+        return new Branch(existingBit | leafBit, children);
+    }
+
+    /**
+     * Remove a key below a node, copying the path to it
+     * @return The new node, or null if nothing is left below it
+     */
+    @Nullable
+    private static Object remove(Object node, Object key, int hash, int shift, boolean isRoot) {
+        if (node instanceof Leaf) {
+            return null; // The key was checked to be present, so this is its leaf
+        }
+
+        if (node instanceof Collision) {
+            Collision collision = (Collision) node;
+            Leaf<?, ?>[] leaves = collision.leaves;
+            Leaf<?, ?>[] kept = new Leaf<?, ?>[leaves.length - 1];
+            int n = 0;
+            for (Leaf<?, ?> leaf : leaves) {
+                if (!leaf.getKey().equals(key)) {
+                    kept[n++] = leaf;
+                }
+            }
+            return kept.length == 1 ? kept[0] : new Collision(hash, kept);
+        }
+
+        Branch branch = (Branch) node;
+        int bit = bit(hash, shift);
+        int index = branch.index(bit);
+        Object child = remove(branch.children[index], key, hash, shift + BITS, false);
+        if (child != null) {
+            Object[] children = branch.children.clone();
+            children[index] = child;
+            return pullUp(new Branch(branch.bitmap, children), isRoot);
+        }
+
+        if (branch.children.length == 1) {
+            return null;
+        }
+        Object[] children = new Object[branch.children.length - 1];
+        System.arraycopy(branch.children, 0, children, 0, index);
+        System.arraycopy(branch.children, index + 1, children, index, children.length - index);
+        return pullUp(new Branch(branch.bitmap & ~bit, children), isRoot);
+    }
+
+    /**
+     * Replace a branch left with a single leaf or collision by that node, so removals do not
+     * leave chains of one-child branches (the root always stays a branch)
+     */
+    private static Object pullUp(Branch branch, boolean isRoot) {
+        if (!isRoot && branch.children.length == 1 && !(branch.children[0] instanceof Branch)) {
+            return branch.children[0];
+        }
+        return branch;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static final class Branch {
+        final int bitmap;
+        final Object[] children;  // Branch, Leaf or Collision, in bit order
+
+        Branch(int bitmap, Object[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    /**
+     * Keys whose full hashes are equal
+     */
+    private static final class Collision {
+        final int hash;
+        final Leaf<?, ?>[] leaves;
+
+        Collision(int hash, Leaf<?, ?>[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+    }
+
+    private static final class Leaf<K, V> extends AbstractMap.SimpleImmutableEntry<K, V> {
+        final int hash;
+
+        Leaf(K key, V value, int hash) {
+            super(key, value);
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Depth-first walk over the leaves
+     */
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+        private final Object[][] arrays = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth;
+        private Leaf<K, V> next;
+
+        EntryIterator() {
+            arrays[0] = root.children;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Leaf<K, V> current = next;
+            advance();
+            return current;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                Object[] array = arrays[depth];
+                if (positions[depth] == array.length) {
+                    depth--;
+                    continue;
+                }
+                Object child = array[positions[depth]++];
+                if (child instanceof Leaf) {
+                    next = (Leaf<K, V>) child;
+                    return;
+                }
+                depth++;
+                arrays[depth] = child instanceof Branch ? ((Branch) child).children : ((Collision) child).leaves;
+                positions[depth] = 0;
+            }
+        }
+    }
+}
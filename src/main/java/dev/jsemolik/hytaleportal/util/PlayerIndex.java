@@ -0,0 +1,160 @@
+package dev.jsemolik.hytaleportal.util;
+
+import com.hypixel.hytale.component.Ref;
+import com.hypixel.hytale.server.core.universe.PlayerRef;
+import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of online players by UUID and by the entity ref they currently have, so event handlers and
+ * commands find a player's PlayerRef without going through a world's player list.
+ *
+ * Kept up to date by the connect, world-ready and disconnect listeners. A player gets a new entity
+ * ref in every world they enter; the previous one is dropped from the index when that happens.
+ * The number of players per world handle is kept as well, so per-world work can tell empty worlds
+ * apart without asking the world. Lookups never lock; updates are synchronized.
+ */
+public class PlayerIndex {
+
+    private static final PlayerIndex INSTANCE = new PlayerIndex();
+
+    private final Map<UUID, PlayerRef> byUuid = new ConcurrentHashMap<>();
+    private final Map<Ref<EntityStore>, PlayerRef> byRef = new ConcurrentHashMap<>();
+    // Entity ref each player is indexed under
+    private final Map<UUID, Ref<EntityStore>> refs = new ConcurrentHashMap<>();
+
+    // World handle each player is in, and players per world handle (copy-on-write, read without locking)
+    private final Map<UUID, Integer> worldHandles = new HashMap<>();
+    private volatile int[] worldPlayerCounts = new int[0];
+
+    private PlayerIndex() {
+    }
+
+    public static PlayerIndex get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Index a player that connected
+     */
+    public synchronized void onConnect(PlayerRef playerRef) {
+        byUuid.put(playerRef.getUuid(), playerRef);
+        Ref<EntityStore> entityRef = playerRef.getReference();
+        if (entityRef != null && entityRef.isValid()) {
+            onEnterWorld(playerRef, entityRef);
+        }
+    }
+
+    /**
+     * Index the entity a player has in the world they just entered, and count them in the world
+     * that owns the entity's store
+     */
+    public synchronized void onEnterWorld(PlayerRef playerRef, Ref<EntityStore> entityRef) {
+        onEnterWorld(playerRef, entityRef, WorldRegistry.get().handleOf(entityRef.getStore().getExternalData().getWorld()));
+    }
+
+    /**
+     * Index the entity a player has in the world they just entered, and count them in that world
+     */
+    public synchronized void onEnterWorld(PlayerRef playerRef, Ref<EntityStore> entityRef, int worldHandle) {
+        byUuid.put(playerRef.getUuid(), playerRef);
+        indexRef(playerRef, entityRef);
+        Integer previous = worldHandles.put(playerRef.getUuid(), worldHandle);
+        if (previous == null || previous != worldHandle) {
+            int[] counts = Arrays.copyOf(worldPlayerCounts, Math.max(worldPlayerCounts.length, worldHandle + 1));
+            if (previous != null) {
+                counts[previous]--;
+            }
+            counts[worldHandle]++;
+            worldPlayerCounts = counts;
+        }
+    }
+
+    /**
+     * Drop a player that disconnected
+     */
+    public synchronized void onDisconnect(UUID playerUUID) {
+        byUuid.remove(playerUUID);
+        Integer worldHandle = worldHandles.remove(playerUUID);
+        if (worldHandle != null) {
+            int[] counts = worldPlayerCounts.clone();
+            counts[worldHandle]--;
+            worldPlayerCounts = counts;
+        }
+        Ref<EntityStore> entityRef = refs.remove(playerUUID);
+        if (entityRef != null) {
+            byRef.remove(entityRef);
+        }
+    }
+
+    private void indexRef(PlayerRef playerRef, Ref<EntityStore> entityRef) {
+        Ref<EntityStore> previous = refs.put(playerRef.getUuid(), entityRef);
+        if (previous != null && !previous.equals(entityRef)) {
+            byRef.remove(previous);
+        }
+        byRef.put(entityRef, playerRef);
+    }
+
+    /**
+     * Get an online player by UUID
+     */
+    @Nullable
+    public PlayerRef get(UUID playerUUID) {
+        return byUuid.get(playerUUID);
+    }
+
+    /**
+     * Get the player an entity ref belongs to.
+     * A ref that was missed by the listeners is resolved through its store and indexed, which
+     * must happen on the thread of the ref's world.
+     * @return The player, or null if the ref is not (or no longer) a player's
+     */
+    @Nullable
+    public PlayerRef get(Ref<EntityStore> entityRef) {
+        if (entityRef == null || !entityRef.isValid()) {
+            return null;
+        }
+        PlayerRef playerRef = byRef.get(entityRef);
+        if (playerRef != null) {
+            return playerRef;
+        }
+
+        playerRef = entityRef.getStore().getComponent(entityRef, PlayerRef.getComponentType());
+        if (playerRef != null) {
+            onEnterWorld(playerRef, entityRef);
+        }
+        return playerRef;
+    }
+
+    /**
+     * Whether any player is in a world (as of the last time each player was indexed; safe to call from any thread)
+     */
+    public boolean hasPlayers(int worldHandle) {
+        int[] counts = worldPlayerCounts;
+        return worldHandle < counts.length && counts[worldHandle] > 0;
+    }
+
+    /**
+     * Get the number of indexed players
+     */
+    public int size() {
+        return byUuid.size();
+    }
+
+    /**
+     * Forget every player
+     */
+    public synchronized void clear() {
+        byUuid.clear();
+        byRef.clear();
+        refs.clear();
+        worldHandles.clear();
+        worldPlayerCounts = new int[0];
+    }
+}
@@ -0,0 +1,320 @@
+package dev.jsemolik.hytaleportal.util;
+
+import com.hypixel.hytale.server.core.HytaleServer;
+import com.hypixel.hytale.server.core.universe.world.World;
+import dev.jsemolik.hytaleportal.HytalePortal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the plugin's per-world work once per tick, within a time budget.
+ *
+ * Every tick, each world that some job has work in gets one task on its own thread. The task runs
+ * the jobs in priority order: normal jobs always get their turn but stop early once the budget is
+ * spent, and deferrable jobs only run while there is time left. A deferrable job that is skipped is
+ * owed its turn and runs on the next tick that has room for it. Work that must never wait for a
+ * budget (like teleport commits) does not go through the scheduler at all.
+ *
+ * A world counts as behind when its previous tick task had not finished when the next was due, or
+ * when its tick tasks start late. A world that was idle (no work, or the tick task dormant) starts
+ * over, so the gap is not mistaken for a late start. While behind, it gets half the budget and no deferrable work, so
+ * a busy moment with many portals does not push an already struggling server further behind.
+ *
+ * The tick task goes dormant when no job has work anywhere; {@link #wake()} resumes it.
+ */
+public class PluginScheduler {
+
+    public enum Priority {
+        NORMAL,
+        DEFERRABLE
+    }
+
+    /**
+     * Work that runs per world, every {@code intervalTicks} ticks
+     */
+    public interface Job {
+        /**
+         * Whether there is anything to do in a world (called from any thread)
+         */
+        boolean hasWork(int worldHandle);
+
+        /**
+         * Do one tick of work in a world (runs on the world thread)
+         */
+        void run(World world, int worldHandle, TickBudget budget);
+    }
+
+    /**
+     * A job added with {@link #register}, used to remove it again
+     */
+    public static final class Registration {
+        private final int id;
+        private final String name;
+        private final Priority priority;
+        private final int intervalTicks;
+        private final Job job;
+
+        private Registration(int id, String name, Priority priority, int intervalTicks, Job job) {
+            this.id = id;
+            this.name = name;
+            this.priority = priority;
+            this.intervalTicks = intervalTicks;
+            this.job = job;
+        }
+    }
+
+    private static final long TICK_MS = 50;
+
+    // A world whose tick tasks start this much later than scheduled counts as behind
+    private static final long LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(TICK_MS + TICK_MS / 2);
+
+    private final long budgetNanos;
+
+    // Registered jobs in priority order (copy-on-write)
+    private volatile Registration[] jobs = new Registration[0];
+    private int nextJobId;
+
+    private ScheduledFuture<?> tickTask;
+    private boolean enabled;
+
+    // Runs the per-world tick on that world's own thread
+    private final PerWorldTask worldTick = new PerWorldTask("portal tick", this::runWorld);
+
+    // Per-world tick state by world handle
+    private final HandleTable<WorldState> worldStates = new HandleTable<>();
+
+    /**
+     * @param tickBudgetMillis Time the plugin may spend per world tick
+     */
+    public PluginScheduler(int tickBudgetMillis) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickBudgetMillis));
+    }
+
+    /**
+     * Add a job; it runs from the next tick on
+     */
+    public synchronized Registration register(String name, Priority priority, int intervalTicks, Job job) {
+        Registration registration = new Registration(nextJobId++, name, priority, Math.max(1, intervalTicks), job);
+        Registration[] updated = Arrays.copyOf(jobs, jobs.length + 1);
+        updated[jobs.length] = registration;
+        Arrays.sort(updated, Comparator.comparing((Registration r) -> r.priority));
+        jobs = updated;
+        wake();
+        return registration;
+    }
+
+    /**
+     * Remove a job (a run already in progress finishes)
+     */
+    public synchronized void unregister(Registration registration) {
+        jobs = Arrays.stream(jobs).filter(r -> r != registration).toArray(Registration[]::new);
+    }
+
+    /**
+     * Start ticking (dormant until a job has work)
+     */
+    public synchronized void start() {
+        enabled = true;
+        wake();
+    }
+
+    /**
+     * Resume ticking if it is dormant and a job has work
+     */
+    public synchronized void wake() {
+        if (!enabled || tickTask != null || !hasAnyWork()) {
+            return;
+        }
+        tickTask = HytaleServer.SCHEDULED_EXECUTOR.scheduleAtFixedRate(this::tick, 0, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop ticking. The normal work that is left is run once more on each world, without a budget,
+     * so nothing queued (like block changes) is lost.
+     * @return Completes once every world has run its final work (or refused the task)
+     */
+    public CompletableFuture<Void> stop() {
+        synchronized (this) {
+            enabled = false;
+            if (tickTask != null) {
+                tickTask.cancel(false);
+                tickTask = null;
+            }
+            worldTick.reset();
+        }
+
+        Registration[] jobs = this.jobs;
+        WorldRegistry worlds = WorldRegistry.get();
+        List<CompletableFuture<Void>> flushes = new ArrayList<>();
+        for (int handle = 0, count = worlds.getHandleCount(); handle < count; handle++) {
+            World world = worlds.getWorld(handle);
+            if (world == null || !hasWork(jobs, handle)) {
+                continue;
+            }
+            int worldHandle = handle;
+            CompletableFuture<Void> flushed = new CompletableFuture<>();
+            flushes.add(flushed);
+            try {
+                world.execute(() -> {
+                    try {
+                        for (Registration registration : jobs) {
+                            if (registration.priority != Priority.DEFERRABLE && registration.job.hasWork(worldHandle)) {
+                                runJob(registration, world, worldHandle, TickBudget.unlimited());
+                            }
+                        }
+                    } finally {
+                        flushed.complete(null);
+                    }
+                });
+            } catch (Exception e) {
+                // World is shutting down and no longer accepts tasks
+                flushed.complete(null);
+            }
+        }
+        return CompletableFuture.allOf(flushes.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Check if the tick task is running (false while dormant)
+     */
+    public synchronized boolean isRunning() {
+        return tickTask != null && !tickTask.isCancelled();
+    }
+
+    /**
+     * Dispatch a tick to every world with work (scheduler thread)
+     */
+    private void tick() {
+        try {
+            Registration[] jobs = this.jobs;
+            WorldRegistry worlds = WorldRegistry.get();
+            boolean anyWork = false;
+            for (int handle = 0, count = worlds.getHandleCount(); handle < count; handle++) {
+                if (!hasWork(jobs, handle)) {
+                    markIdle(handle);
+                    continue;
+                }
+                World world = worlds.getWorld(handle);
+                if (world == null) {
+                    markIdle(handle);
+                    continue; // Picked up again once the world is loaded
+                }
+                anyWork = true;
+                if (!worldTick.dispatch(handle, world)) {
+                    // Still busy with the previous tick
+                    worldStates.computeIfAbsent(handle, h -> new WorldState()).missedTick = true;
+                }
+            }
+
+            if (!anyWork) {
+                suspendIfIdle();
+            }
+        } catch (Exception e) {
+            HytalePortal.getPluginLogger().atInfo().log("[ERROR] Error dispatching portal ticks: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run one tick of the jobs in a world (world thread)
+     */
+    private void runWorld(World world, int worldHandle) {
+        WorldState state = worldStates.computeIfAbsent(worldHandle, h -> new WorldState());
+        long start = System.nanoTime();
+        if (state.idle) {
+            // Not ticked for a while: the last start says nothing about lateness
+            state.idle = false;
+            state.lastStart = 0;
+        }
+        boolean behind = state.missedTick || (state.lastStart != 0 && start - state.lastStart > LATE_NANOS);
+        state.missedTick = false;
+        state.lastStart = start;
+        long tick = ++state.tick;
+
+        TickBudget budget = new TickBudget(behind ? budgetNanos / 2 : budgetNanos, behind);
+        for (Registration registration : jobs) {
+            boolean due = tick % registration.intervalTicks == 0 || state.owed.get(registration.id);
+            if (!due || !registration.job.hasWork(worldHandle)) {
+                continue;
+            }
+            if (registration.priority == Priority.DEFERRABLE && (behind || !budget.hasTime())) {
+                state.owed.set(registration.id); // Next tick with room for it
+                continue;
+            }
+            state.owed.clear(registration.id);
+            runJob(registration, world, worldHandle, budget);
+        }
+    }
+
+    private static void runJob(Registration registration, World world, int worldHandle, TickBudget budget) {
+        try {
+            registration.job.run(world, worldHandle, budget);
+        } catch (Exception e) {
+            HytalePortal.getPluginLogger().atInfo().log(
+                "[ERROR] Error running %s in world %s: %s",
+                registration.name, world.getName(), e.getMessage()
+            );
+        }
+    }
+
+    /**
+     * Put the tick task to sleep when no job has work
+     */
+    private synchronized void suspendIfIdle() {
+        // Re-check under the lock so work added meanwhile keeps the task alive
+        if (tickTask == null || hasAnyWork()) {
+            return;
+        }
+        tickTask.cancel(false);
+        tickTask = null;
+        worldTick.reset();
+        worldStates.forEach(state -> state.idle = true);
+    }
+
+    /**
+     * Note that a world was not ticked, so its next tick does not count as late (scheduler thread)
+     */
+    private void markIdle(int worldHandle) {
+        WorldState state = worldStates.get(worldHandle);
+        if (state != null && !state.idle) {
+            state.idle = true;
+        }
+    }
+
+    private boolean hasAnyWork() {
+        Registration[] jobs = this.jobs;
+        for (int handle = 0, count = WorldRegistry.get().getHandleCount(); handle < count; handle++) {
+            if (hasWork(jobs, handle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasWork(Registration[] jobs, int worldHandle) {
+        for (Registration registration : jobs) {
+            if (registration.job.hasWork(worldHandle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class WorldState {
+        // Set by the scheduler thread when a tick could not be dispatched
+        volatile boolean missedTick;
+        // Set by the scheduler thread when the world was not ticked
+        volatile boolean idle;
+
+        // World thread only
+        long lastStart;
+        long tick;
+        final BitSet owed = new BitSet();
+    }
+}
@@ -5,61 +5,122 @@ import com.hypixel.hytale.math.vector.Vector3f;
 import com.hypixel.hytale.math.vector.Vector3i;
 import com.hypixel.hytale.server.core.universe.PlayerRef;
 import com.hypixel.hytale.server.core.universe.world.World;
-import com.hypixel.hytale.server.core.util.TargetUtil;
+import dev.jsemolik.hytaleportal.portal.PortalPlacementValidator;
+import dev.jsemolik.hytaleportal.portal.PortalRaycast;
 
 import javax.annotation.Nullable;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Helper class for raycasting operations
  */
 public class RaycastHelper {
-    
+
     private static final double MAX_RAYCAST_DISTANCE = 50.0; // Max distance to look for portal placement
-    
+
+    /**
+     * Height of a player's eyes above their feet
+     */
+    private static final double EYE_HEIGHT = 1.6;
+
+    /**
+     * How long to wait for the world thread before giving up on a raycast
+     */
+    private static final long RAYCAST_TIMEOUT_SECONDS = 5;
+
+    // One traversal and validator per world thread, reused for every raycast on it
+    private static final ThreadLocal<PortalRaycast> RAYCASTS = ThreadLocal.withInitial(PortalRaycast::new);
+    private static final ThreadLocal<PortalPlacementValidator> VALIDATORS = ThreadLocal.withInitial(PortalPlacementValidator::new);
+
     /**
-     * Raycast from player's eyes to find the target block position
+     * Raycast from player's eyes to find the surface they are looking at.
+     * Runs on the world thread (it reads chunk data); no thread ever blocks waiting for it.
+     * Called on the world thread, the raycast runs right away and the future is already complete.
      * @param playerRef The player reference
      * @param world The world to raycast in
-     * @return The position of the target block, or null if no block found
+     * @return A future of the block and face that were hit; it completes with null if no block
+     *         was found, the raycast failed or the world did not get to it in time
+     */
+    public static CompletableFuture<Target> getTargetAsync(PlayerRef playerRef, World world) {
+        return onWorldThread(world, () -> raycast(playerRef, world), null);
+    }
+
+    /**
+     * Find where a portal shot by the player would land: raycast to the surface they are looking at,
+     * then check that the portal fits there, moving it to the nearest spot that does if needed
+     * (see {@link PortalPlacementValidator}). Runs on the world thread like {@link #getTargetAsync}.
+     * @return A future of the placement; it never completes with null, a placement that failed says why
+     */
+    public static CompletableFuture<PortalPlacement> getPlacementAsync(PlayerRef playerRef, World world) {
+        return onWorldThread(world, () -> findPlacement(playerRef, world), PortalPlacement.failed(PlacementFailure.WORLD_UNAVAILABLE));
+    }
+
+    /**
+     * Run a raycast on the world thread, right away if already on it
+     * @param unavailable Result if the world does not run it
+     */
+    private static <T> CompletableFuture<T> onWorldThread(World world, Supplier<T> raycast, @Nullable T unavailable) {
+        if (world.isInThread()) {
+            return CompletableFuture.completedFuture(raycast.get());
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            world.execute(() -> result.complete(raycast.get()));
+        } catch (Exception e) {
+            // World no longer accepts tasks
+            result.complete(unavailable);
+        }
+        // A stalled world must not leave callers waiting forever
+        return result.completeOnTimeout(unavailable, RAYCAST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Raycast and validate a portal placement, for callers already on the world thread
+     * (see {@link #getPlacementAsync})
+     */
+    public static PortalPlacement findPlacement(PlayerRef playerRef, World world) {
+        Target target = raycast(playerRef, world);
+        if (target == null) {
+            return PortalPlacement.failed(PlacementFailure.NO_SURFACE);
+        }
+        PortalPlacement placement = calculatePlacement(target);
+        if (placement == null) {
+            return PortalPlacement.failed(PlacementFailure.NOT_A_WALL);
+        }
+
+        PortalPlacementValidator validator = VALIDATORS.get();
+        int facing = Math.floorMod(Math.round(placement.rotation.y / 90f), 4);
+        if (!validator.findValid(world, (int) placement.position.x, (int) placement.position.y, (int) placement.position.z, facing)) {
+            return PortalPlacement.failed(PlacementFailure.NO_ROOM);
+        }
+        return new PortalPlacement(
+            new Vector3d(validator.getResultX(), validator.getResultY(), validator.getResultZ()),
+            placement.rotation
+        );
+    }
+
+    /**
+     * Raycast from a player's eyes along their head rotation, through linked portals (world thread)
      */
     @Nullable
-    public static Vector3i getTargetBlockPosition(PlayerRef playerRef, World world) {
+    private static Target raycast(PlayerRef playerRef, World world) {
         try {
-            // Get the entity reference from PlayerRef
-            var entityRef = playerRef.getReference();
-            if (entityRef == null) {
+            Vector3d position = playerRef.getTransform().getPosition();
+            Vector3f rotation = playerRef.getHeadRotation();
+            double pitch = Math.toRadians(rotation.x);
+            double yaw = Math.toRadians(rotation.y);
+            double horizontal = Math.cos(pitch);
+
+            PortalRaycast ray = RAYCASTS.get();
+            if (!ray.cast(world, WorldRegistry.get().handleOf(world), position.x, position.y + EYE_HEIGHT, position.z,
+                    -Math.sin(yaw) * horizontal, -Math.sin(pitch), Math.cos(yaw) * horizontal,
+                    MAX_RAYCAST_DISTANCE)) {
                 return null;
             }
-            
-            // Get the store (ComponentAccessor) from the entity reference
-            var store = entityRef.getStore();
-            
-            // Use an array to capture the result from the world thread
-            final Vector3i[] result = new Vector3i[1];
-            final CountDownLatch latch = new CountDownLatch(1);
-            
-            // Execute raycasting on the world thread (required by TargetUtil)
-            world.execute(() -> {
-                try {
-                    result[0] = TargetUtil.getTargetBlock(
-                        entityRef,
-                        MAX_RAYCAST_DISTANCE,
-                        store
-                    );
-                } catch (Exception e) {
-                    result[0] = null;
-                } finally {
-                    latch.countDown();
-                }
-            });
-            
-            // Wait for completion (max 5 seconds)
-            latch.await(5, TimeUnit.SECONDS);
-            
-            return result[0];
-            
+            return new Target(ray.getHit(), ray.getTransits());
         } catch (Exception e) {
             dev.jsemolik.hytaleportal.HytalePortal.getPluginLogger().atInfo().log(
                 "Error getting target block: %s",
@@ -68,71 +129,106 @@ public class RaycastHelper {
             return null;
         }
     }
-    
+
     /**
-     * Calculate portal position and rotation from target block and player position
-     * Places portal adjacent to the hit surface, facing the player
+     * Calculate portal position and rotation from the surface that was hit, without checking that it fits.
+     * Places the portal in the block in front of the hit face, facing out of it.
+     * @return The placement, or null if the hit face is a floor or ceiling (portals only go on walls)
      */
-    public static PortalPlacement calculatePlacement(Vector3i targetBlock, Vector3d playerPos) {
-        if (targetBlock == null) {
-            // Fallback: place in front of player
-            Vector3d pos = new Vector3d(
-                Math.floor(playerPos.x),
-                Math.floor(playerPos.y),
-                Math.floor(playerPos.z) + 5
-            );
-            return new PortalPlacement(pos, new Vector3f(0, 0, 0));
+    @Nullable
+    public static PortalPlacement calculatePlacement(Target target) {
+        if (target.normal.y != 0) {
+            return null;
         }
-        
-        // Calculate direction from target to player
-        double dx = playerPos.x - targetBlock.x;
-        double dy = playerPos.y - targetBlock.y;
-        double dz = playerPos.z - targetBlock.z;
-        
-        // Determine which face was hit based on which axis has the largest difference
-        double absDx = Math.abs(dx);
-        double absDz = Math.abs(dz);
-        
-        Vector3d portalPos;
+
+        Vector3d portalPos = new Vector3d(
+            target.block.x + target.normal.x,
+            target.block.y,
+            target.block.z + target.normal.z
+        );
+
+        // Yaw whose portal normal matches the face normal (see Portal)
         float yaw;
-        
-        if (absDx > absDz) {
-            // Hit on X-axis face (east/west wall)
-            if (dx > 0) {
-                // Hit west face, place portal on east side, facing west
-                portalPos = new Vector3d(targetBlock.x + 1, targetBlock.y, targetBlock.z);
-                yaw = 270; // Face west
-            } else {
-                // Hit east face, place portal on west side, facing east  
-                portalPos = new Vector3d(targetBlock.x - 1, targetBlock.y, targetBlock.z);
-                yaw = 90; // Face east
-            }
+        if (target.normal.z > 0) {
+            yaw = 0;
+        } else if (target.normal.x < 0) {
+            yaw = 90;
+        } else if (target.normal.z < 0) {
+            yaw = 180;
         } else {
-            // Hit on Z-axis face (north/south wall)
-            if (dz > 0) {
-                // Hit north face, place portal on south side, facing north
-                portalPos = new Vector3d(targetBlock.x, targetBlock.y, targetBlock.z + 1);
-                yaw = 0; // Face north
-            } else {
-                // Hit south face, place portal on north side, facing south
-                portalPos = new Vector3d(targetBlock.x, targetBlock.y, targetBlock.z - 1);
-                yaw = 180; // Face south
-            }
+            yaw = 270;
         }
-        
+
         return new PortalPlacement(portalPos, new Vector3f(0, yaw, 0));
     }
-    
+
+    /**
+     * The block a raycast hit, the outward normal of the face it entered through, the hit point
+     * and how many portals the ray passed through to get there
+     */
+    public static class Target {
+        public final Vector3i block;
+        public final Vector3i normal;
+        public final Vector3d hitPoint;
+        public final int transits;
+
+        private Target(VoxelRaycast ray, int transits) {
+            this.block = new Vector3i(ray.getBlockX(), ray.getBlockY(), ray.getBlockZ());
+            this.normal = new Vector3i(ray.getNormalX(), ray.getNormalY(), ray.getNormalZ());
+            this.hitPoint = new Vector3d(ray.getHitX(), ray.getHitY(), ray.getHitZ());
+            this.transits = transits;
+        }
+    }
+
     /**
-     * Helper class to hold portal position and rotation
+     * Why a portal could not be placed
+     */
+    public enum PlacementFailure {
+        NO_SURFACE("No surface in range!"),
+        NOT_A_WALL("Portals can only be placed on walls!"),
+        NO_ROOM("Not enough room for a portal there!"),
+        WORLD_UNAVAILABLE("Could not reach the world, try again!");
+
+        private final String message;
+
+        PlacementFailure(String message) {
+            this.message = message;
+        }
+
+        /**
+         * Get the message to show the player
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Helper class to hold portal position and rotation, or why there is none
      */
     public static class PortalPlacement {
         public final Vector3d position;
         public final Vector3f rotation;
-        
+        public final PlacementFailure failure;
+
         public PortalPlacement(Vector3d position, Vector3f rotation) {
             this.position = position;
             this.rotation = rotation;
+            this.failure = null;
+        }
+
+        private PortalPlacement(PlacementFailure failure) {
+            this.position = null;
+            this.rotation = null;
+            this.failure = failure;
+        }
+
+        static PortalPlacement failed(PlacementFailure failure) {
+            return new PortalPlacement(failure);
+        }
+
+        public boolean isValid() {
+            return failure == null;
         }
     }
 }
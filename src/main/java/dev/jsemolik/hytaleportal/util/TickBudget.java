@@ -0,0 +1,37 @@
+package dev.jsemolik.hytaleportal.util;
+
+/**
+ * The time the plugin may spend in one world tick (see {@link PluginScheduler}).
+ * Jobs check it between units of work and leave the rest for a later tick once it runs out.
+ */
+public final class TickBudget {
+
+    private final long deadline;
+    private final boolean behind;
+
+    TickBudget(long budgetNanos, boolean behind) {
+        this.deadline = System.nanoTime() + budgetNanos;
+        this.behind = behind;
+    }
+
+    /**
+     * A budget that never runs out (used for the final flush on shutdown)
+     */
+    static TickBudget unlimited() {
+        return new TickBudget(Long.MAX_VALUE / 2, false);
+    }
+
+    /**
+     * Whether there is time left in this tick
+     */
+    public boolean hasTime() {
+        return System.nanoTime() < deadline;
+    }
+
+    /**
+     * Whether the world was already running behind when this tick started
+     */
+    public boolean isBehind() {
+        return behind;
+    }
+}
@@ -0,0 +1,235 @@
+package dev.jsemolik.hytaleportal.util;
+
+import com.hypixel.hytale.math.util.ChunkUtil;
+import com.hypixel.hytale.protocol.BlockMaterial;
+import com.hypixel.hytale.server.core.asset.type.blocktype.config.BlockType;
+import com.hypixel.hytale.server.core.universe.world.World;
+import com.hypixel.hytale.server.core.universe.world.chunk.WorldChunk;
+
+/**
+ * Voxel traversal (Amanatides-Woo DDA) over a world's chunk data.
+ * Steps through every block the ray passes, in order, and stops at the first solid one (see
+ * {@link #isSolid}), reporting the block, the face the ray entered it through and the exact hit point.
+ * Grass, flowers and other blocks without a solid material are passed through.
+ *
+ * The chunk of the current block is looked up once and reused until the ray crosses into the next
+ * chunk. Nothing is allocated per cast: the result is kept in this instance, so read it before the
+ * next cast. Not thread safe; must be used on the thread that owns the world (see {@link RaycastHelper}).
+ */
+public class VoxelRaycast {
+
+    /**
+     * Vertical extent of the world (MAX_Y exclusive): chunk columns start at 0 and are
+     * {@link ChunkUtil#HEIGHT} blocks tall. Rays pass through anything outside it.
+     */
+    public static final int MIN_Y = 0;
+    public static final int MAX_Y = ChunkUtil.HEIGHT;
+
+    // Returned by blockAt when the chunk is not loaded
+    private static final int UNLOADED = -1;
+
+    // Chunk of the block being stepped through (only valid during a cast)
+    private World world;
+    private WorldChunk chunk;
+    private long chunkIndex;
+    private boolean chunkCached;
+
+    // Last hit
+    private int blockX;
+    private int blockY;
+    private int blockZ;
+    private int blockId;
+    private int normalX;
+    private int normalY;
+    private int normalZ;
+    private double hitX;
+    private double hitY;
+    private double hitZ;
+    private double distance;
+
+    /**
+     * Cast a ray through a world.
+     * The block containing the origin is not tested, so a ray cast from inside a block still finds
+     * the surface in front of it. The ray stops at unloaded chunks. The direction need not be normalized.
+     * @return true if a block was hit within maxDistance (read it with the getters)
+     */
+    public boolean cast(World world, double originX, double originY, double originZ,
+                        double directionX, double directionY, double directionZ, double maxDistance) {
+        double length = Math.sqrt(directionX * directionX + directionY * directionY + directionZ * directionZ);
+        if (length == 0 || !(maxDistance > 0)) {
+            return false;
+        }
+        double dx = directionX / length;
+        double dy = directionY / length;
+        double dz = directionZ / length;
+
+        int x = (int) Math.floor(originX);
+        int y = (int) Math.floor(originY);
+        int z = (int) Math.floor(originZ);
+        int stepX = dx > 0 ? 1 : dx < 0 ? -1 : 0;
+        int stepY = dy > 0 ? 1 : dy < 0 ? -1 : 0;
+        int stepZ = dz > 0 ? 1 : dz < 0 ? -1 : 0;
+
+        // Distance along the ray to the next boundary on each axis, and between boundaries
+        double tDeltaX = stepX != 0 ? Math.abs(1.0 / dx) : Double.POSITIVE_INFINITY;
+        double tDeltaY = stepY != 0 ? Math.abs(1.0 / dy) : Double.POSITIVE_INFINITY;
+        double tDeltaZ = stepZ != 0 ? Math.abs(1.0 / dz) : Double.POSITIVE_INFINITY;
+        double tMaxX = boundary(originX, x, stepX, tDeltaX);
+        double tMaxY = boundary(originY, y, stepY, tDeltaY);
+        double tMaxZ = boundary(originZ, z, stepZ, tDeltaZ);
+
+        this.world = world;
+        this.chunkCached = false;
+        try {
+            while (true) {
+                double t;
+                if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+                    x += stepX;
+                    t = tMaxX;
+                    tMaxX += tDeltaX;
+                    setNormal(-stepX, 0, 0);
+                } else if (tMaxY < tMaxZ) {
+                    y += stepY;
+                    t = tMaxY;
+                    tMaxY += tDeltaY;
+                    setNormal(0, -stepY, 0);
+                } else {
+                    z += stepZ;
+                    t = tMaxZ;
+                    tMaxZ += tDeltaZ;
+                    setNormal(0, 0, -stepZ);
+                }
+                if (t > maxDistance) {
+                    return false;
+                }
+
+                if (y < MIN_Y || y >= MAX_Y) {
+                    // Above or below the world: nothing to hit unless the ray is heading back in
+                    if ((y < MIN_Y && stepY <= 0) || (y >= MAX_Y && stepY >= 0)) {
+                        return false;
+                    }
+                    continue;
+                }
+
+                int id = blockAt(x, y, z);
+                if (id == UNLOADED) {
+                    return false;
+                }
+                if (isSolid(id)) {
+                    blockX = x;
+                    blockY = y;
+                    blockZ = z;
+                    blockId = id;
+                    hitX = originX + dx * t;
+                    hitY = originY + dy * t;
+                    hitZ = originZ + dz * t;
+                    distance = t;
+                    return true;
+                }
+            }
+        } finally {
+            // Don't keep the world or its chunks alive between casts
+            this.world = null;
+            this.chunk = null;
+        }
+    }
+
+    /**
+     * Whether a block stops rays and can hold a portal: its type has a solid material
+     */
+    public static boolean isSolid(int blockId) {
+        if (blockId == BlockType.EMPTY_ID) {
+            return false;
+        }
+        BlockType blockType = BlockType.getAssetMap().getAsset(blockId);
+        return blockType != null && blockType.getMaterial() == BlockMaterial.Solid;
+    }
+
+    /**
+     * Distance along the ray from the origin to the first block boundary on one axis
+     */
+    private static double boundary(double origin, int block, int step, double tDelta) {
+        if (step > 0) {
+            return (block + 1 - origin) * tDelta;
+        }
+        if (step < 0) {
+            return (origin - block) * tDelta;
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    private void setNormal(int x, int y, int z) {
+        normalX = x;
+        normalY = y;
+        normalZ = z;
+    }
+
+    /**
+     * Get the block id at a position, looking its chunk up only when the ray enters a new chunk
+     */
+    private int blockAt(int x, int y, int z) {
+        long index = ChunkUtil.indexChunkFromBlock(x, z);
+        if (!chunkCached || index != chunkIndex) {
+            chunkIndex = index;
+            chunk = world.getChunkIfLoaded(index);
+            chunkCached = true;
+        }
+        return chunk != null ? chunk.getBlock(x, y, z) : UNLOADED;
+    }
+
+    public int getBlockX() {
+        return blockX;
+    }
+
+    public int getBlockY() {
+        return blockY;
+    }
+
+    public int getBlockZ() {
+        return blockZ;
+    }
+
+    /**
+     * Get the id of the block that was hit
+     */
+    public int getBlockId() {
+        return blockId;
+    }
+
+    /**
+     * Get the outward normal of the face that was hit (one axis is -1 or 1, the others 0)
+     */
+    public int getNormalX() {
+        return normalX;
+    }
+
+    public int getNormalY() {
+        return normalY;
+    }
+
+    public int getNormalZ() {
+        return normalZ;
+    }
+
+    /**
+     * Get the point where the ray entered the block
+     */
+    public double getHitX() {
+        return hitX;
+    }
+
+    public double getHitY() {
+        return hitY;
+    }
+
+    public double getHitZ() {
+        return hitZ;
+    }
+
+    /**
+     * Get the distance from the origin to the hit point
+     */
+    public double getDistance() {
+        return distance;
+    }
+}
@@ -0,0 +1,122 @@
+package dev.jsemolik.hytaleportal.util;
+
+import com.hypixel.hytale.server.core.universe.Universe;
+import com.hypixel.hytale.server.core.universe.world.World;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns world names as small int handles and caches the resolved {@link World} per handle,
+ * so per-tick code compares ints and indexes arrays instead of hashing names and asking the
+ * Universe. The cache is invalidated when a world is added or removed.
+ *
+ * Handles are only stable while the server runs; persist world names, not handles.
+ */
+public final class WorldRegistry {
+
+    private static final WorldRegistry INSTANCE = new WorldRegistry();
+
+    // Cached "world is not loaded" result, so missing worlds are not looked up every tick
+    private static final Object MISSING = new Object();
+    private static final VarHandle WORLDS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private final Map<String, Integer> handles = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[0];
+    // World, MISSING, or null when not resolved yet; elements are only written under the lock, with
+    // release stores that world threads read with acquire loads, so an invalidation is seen promptly
+    private volatile Object[] worlds = new Object[0];
+
+    private WorldRegistry() {
+    }
+
+    public static WorldRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the handle of a world name, allocating one on first use
+     */
+    public int handleOf(String worldName) {
+        Integer handle = handles.get(worldName);
+        return handle != null ? handle : intern(worldName);
+    }
+
+    public int handleOf(World world) {
+        return handleOf(world.getName());
+    }
+
+    public String nameOf(int handle) {
+        return names[handle];
+    }
+
+    /**
+     * Get the number of handles allocated so far (handles are 0 until this)
+     */
+    public int getHandleCount() {
+        return names.length;
+    }
+
+    /**
+     * Get the loaded world for a handle
+     * @return The world, or null if it is not loaded
+     */
+    @Nullable
+    public World getWorld(int handle) {
+        Object cached = WORLDS.getAcquire(worlds, handle);
+        if (cached == null) {
+            cached = resolve(handle);
+        }
+        return cached == MISSING ? null : (World) cached;
+    }
+
+    /**
+     * Drop the cached world for a name (called when a world is added or removed)
+     */
+    public synchronized void invalidate(String worldName) {
+        Integer handle = handles.get(worldName);
+        if (handle != null) {
+            WORLDS.setRelease(worlds, handle.intValue(), (Object) null);
+        }
+    }
+
+    /**
+     * Drop every cached world
+     */
+    public synchronized void invalidateAll() {
+        worlds = new Object[worlds.length];
+    }
+
+    private synchronized int intern(String worldName) {
+        Integer handle = handles.get(worldName);
+        if (handle != null) {
+            return handle;
+        }
+
+        int newHandle = names.length;
+        String[] grownNames = new String[newHandle + 1];
+        System.arraycopy(names, 0, grownNames, 0, newHandle);
+        grownNames[newHandle] = worldName;
+        Object[] grownWorlds = new Object[newHandle + 1];
+        System.arraycopy(worlds, 0, grownWorlds, 0, newHandle);
+
+        // Publish the arrays before the handle can be seen
+        names = grownNames;
+        worlds = grownWorlds;
+        handles.put(worldName, newHandle);
+        return newHandle;
+    }
+
+    private synchronized Object resolve(int handle) {
+        Object cached = worlds[handle];
+        if (cached == null) {
+            World world = Universe.get().getWorld(names[handle]);
+            cached = world != null ? world : MISSING;
+            WORLDS.setRelease(worlds, handle, cached);
+        }
+        return cached;
+    }
+}